@@ -0,0 +1,230 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.util.IOConsumer;
+import org.apache.lucene.util.IOSupplier;
+import org.apache.lucene.util.IOUtils;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Extracts the entries of container files (archives, mailboxes) one by one
+ * through Tika's {@link EmbeddedDocumentExtractor}.<br>
+ * The text of each entry is spooled to a temporary file, passed to the consumer of the entries while the
+ * container is parsed, and deleted: memory and disk are bounded by the largest entry rather than by the
+ * whole container.
+ */
+public class ContainerExtractor implements EmbeddedDocumentExtractor, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ContainerExtractor.class);
+
+    // separator between the container path and the entry name
+    public static final String ENTRY_SEPARATOR = "!/";
+
+    // MIME types indexed as one document per entry
+    private static final Set<String> CONTAINER_TYPES = Set.of(
+            "application/zip",
+            "application/x-tar",
+            "application/x-gtar",
+            "application/gzip",
+            "application/x-7z-compressed",
+            "application/x-rar-compressed",
+            "application/vnd.rar",
+            "application/mbox",
+            "application/vnd.ms-outlook-pst");
+
+    private final Parser parser;
+    private final Path container;
+    private final IOConsumer<Entry> consumer;
+    private final List<Path> spoolFiles = new ArrayList<>();
+    private int entryCount;
+    // first error of the consumer, the remaining entries are skipped
+    private IOException failure;
+
+    /**
+     * an entry of the container
+     *
+     * @param path     container path, followed by {@link #ENTRY_SEPARATOR} and the entry name
+     * @param mimeType MIME type of the entry
+     * @param contents new reader of the text of the entry, readable until the consumer returns
+     */
+    public record Entry(String path, String mimeType, IOSupplier<Reader> contents) {
+    }
+
+    /**
+     * ContainerExtractor
+     *
+     * @param parser    parser used for the container and its entries
+     * @param container container file
+     * @param consumer  receives each entry once converted, in the order of the container
+     */
+    public ContainerExtractor(Parser parser, Path container, IOConsumer<Entry> consumer) {
+        this.parser = parser;
+        this.container = container;
+        this.consumer = consumer;
+    }
+
+    /**
+     * @param mimeType detected MIME type
+     * @return true if files of this type must be indexed entry by entry
+     */
+    public static boolean isContainer(String mimeType) {
+        return CONTAINER_TYPES.contains(mimeType);
+    }
+
+    /**
+     * @param path a document path
+     * @return the path of the file containing the document
+     */
+    public static String containerPath(String path) {
+        int i = path.indexOf(ENTRY_SEPARATOR);
+        return (i < 0) ? path : path.substring(0, i);
+    }
+
+    /**
+     * parse the container, its entries are passed to the consumer meanwhile
+     *
+     * @return text of the container itself (not including its entries)
+     * @throws IOException the first error of the consumer, if any
+     */
+    public Reader extract() throws IOException, TikaException, SAXException {
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, parser);
+        context.set(EmbeddedDocumentExtractor.class, this);
+
+        Path spool = newSpoolFile();
+        try (InputStream input = TikaInputStream.get(container);
+             Writer writer = Files.newBufferedWriter(spool, StandardCharsets.UTF_8)) {
+            parser.parse(input, new BodyContentHandler(writer), new Metadata(), context);
+        }
+        // parsers may ignore the errors of the embedded documents
+        if (failure != null)
+            throw failure;
+        return new SpoolReader(spool);
+    }
+
+    /**
+     * @return number of entries found so far
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public boolean shouldParseEmbedded(Metadata metadata) {
+        return failure == null;
+    }
+
+    /**
+     * convert an entry to text, nested containers are included in the text of the entry
+     */
+    @Override
+    public void parseEmbedded(InputStream stream, ContentHandler handler, Metadata metadata, boolean outputHtml)
+            throws IOException {
+        String name = metadata.get(TikaCoreProperties.RESOURCE_NAME_KEY);
+        entryCount++;
+        if (name == null || name.isBlank())
+            name = "entry" + entryCount;
+
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, parser);
+
+        Path spool = newSpoolFile();
+        try {
+            try (Writer writer = Files.newBufferedWriter(spool, StandardCharsets.UTF_8)) {
+                parser.parse(TikaInputStream.get(stream), new BodyContentHandler(writer), metadata, context);
+            } catch (TikaException | SAXException e) {
+                // keep the entry, with the text extracted before the error
+                log.debug("Could not parse entry {} of {}", name, container, e);
+            }
+
+            String type = metadata.get(Metadata.CONTENT_TYPE);
+            String mimeType = (type == null) ? MediaType.OCTET_STREAM.toString() : MediaType.parse(type).getBaseType().toString();
+            // the readers are closed when the consumer returns, the spool file can then be deleted
+            List<Reader> readers = new ArrayList<>();
+            try {
+                consumer.accept(new Entry(container + ENTRY_SEPARATOR + name, mimeType, () -> {
+                    Reader reader = new SpoolReader(spool);
+                    readers.add(reader);
+                    return reader;
+                }));
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            } finally {
+                IOUtils.close(readers);
+            }
+        } finally {
+            Files.deleteIfExists(spool);
+            spoolFiles.remove(spool);
+        }
+    }
+
+    /**
+     * delete temporary files
+     */
+    @Override
+    public void close() {
+        for (Path spool : spoolFiles) {
+            try {
+                Files.deleteIfExists(spool);
+            } catch (IOException e) {
+                log.warn("Could not delete {}", spool);
+            }
+        }
+    }
+
+    private Path newSpoolFile() throws IOException {
+        Path spool = Files.createTempFile("LuceneFx", ".txt");
+        spoolFiles.add(spool);
+        return spool;
+    }
+
+    /**
+     * Reader opening its spool file on first read, so that a container with many
+     * entries does not hold a file handle per entry
+     */
+    private static class SpoolReader extends Reader {
+        private final Path spool;
+        private Reader in;
+
+        SpoolReader(Path spool) {
+            this.spool = spool;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (in == null)
+                in = Files.newBufferedReader(spool, StandardCharsets.UTF_8);
+            return in.read(cbuf, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null)
+                in.close();
+            in = null;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.facet.DrillDownQuery;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.range.LongRange;
+import org.apache.lucene.facet.range.LongRangeFacetCounts;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Facet dimensions of the index.<br>
+ * MIME type, modification date (year/month) and top-level folder are indexed as
+ * {@code SortedSetDocValues} facets, attachment count buckets are computed at search time
+ * from the existing "attachments" doc values.
+ */
+public class DocFacets {
+    private static final Logger log = LoggerFactory.getLogger(DocFacets.class);
+
+    // facet dimensions
+    public static final String DIM_TYPE = "type";
+    public static final String DIM_DATE = "date";
+    public static final String DIM_FOLDER = "folder";
+    public static final String DIM_ATTACHMENTS = "attachments";
+
+    // folder label for files stored directly in the document directory
+    public static final String ROOT_FOLDER = ".";
+
+    // number of labels returned per dimension
+    private static final int TOP_N = 10;
+
+    // attachment buckets, counted on the "attachments" doc values field
+    private static final LongRange[] ATTACHMENT_RANGES = {
+            new LongRange("0", 0, true, 0, true),
+            new LongRange("1", 1, true, 1, true),
+            new LongRange("2-5", 2, true, 5, true),
+            new LongRange("6-20", 6, true, 20, true),
+            new LongRange("> 20", 21, true, Long.MAX_VALUE, true)};
+
+    private static final FacetsConfig config = new FacetsConfig();
+
+    static {
+        config.setHierarchical(DIM_DATE, true);
+    }
+
+    private DocFacets() {
+    }
+
+    /**
+     * @return the facets configuration shared by indexing and search
+     */
+    public static FacetsConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * add facet fields to a document and translate them into indexable fields
+     *
+     * @param doc          document being indexed
+     * @param docPath      root of the document directory
+     * @param file         indexed file
+     * @param mimeType     MIME type detected by Tika
+     * @param lastModified last modification time in milliseconds
+     * @return the document to add to the index
+     */
+    public static Document build(Document doc, Path docPath, Path file, String mimeType, long lastModified)
+            throws IOException {
+        doc.add(new SortedSetDocValuesFacetField(DIM_TYPE, mimeType));
+
+        LocalDate date = Instant.ofEpochMilli(lastModified).atZone(ZoneId.systemDefault()).toLocalDate();
+        doc.add(new SortedSetDocValuesFacetField(DIM_DATE, String.valueOf(date.getYear()),
+                String.format("%02d", date.getMonthValue())));
+
+        doc.add(new SortedSetDocValuesFacetField(DIM_FOLDER, topFolder(docPath, file)));
+
+        return config.build(doc);
+    }
+
+    /**
+     * @return the name of the first directory below docPath containing file
+     */
+    static String topFolder(Path docPath, Path file) {
+        Path parent = file.getParent();
+        if (docPath == null || parent == null || !parent.startsWith(docPath) || parent.equals(docPath))
+            return ROOT_FOLDER;
+        return docPath.relativize(parent).getName(0).toString();
+    }
+
+    /**
+     * open the facet state of a reader, must be done once each time a reader is opened
+     *
+     * @param reader index reader
+     * @return facet state or null if the index contains no facets (index built by an older version)
+     */
+    public static SortedSetDocValuesReaderState openState(IndexReader reader) {
+        try {
+            return new DefaultSortedSetDocValuesReaderState(reader, config);
+        } catch (IllegalArgumentException | IOException e) {
+            log.info("No facets in index: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * facet counts of the hits of a search
+     *
+     * @param dims   top values of each dimension
+     * @param months months of each year of the date dimension, by year
+     */
+    public record Counts(List<FacetResult> dims, Map<String, FacetResult> months) {
+    }
+
+    /**
+     * count all facet dimensions for the hits collected by fc, the hits are counted once
+     * for all dimensions and the months of every year
+     *
+     * @param state facet state of the current reader
+     * @param fc    hits of the query
+     * @return facet counts
+     */
+    public static Counts count(SortedSetDocValuesReaderState state, FacetsCollector fc) throws IOException {
+        List<FacetResult> results = new ArrayList<>();
+        Map<String, FacetResult> months = new HashMap<>();
+
+        SortedSetDocValuesFacetCounts counts = new SortedSetDocValuesFacetCounts(state, fc);
+        for (String dim : new String[]{DIM_TYPE, DIM_DATE, DIM_FOLDER}) {
+            FacetResult result = counts.getTopChildren(TOP_N, dim);
+            if (result == null)
+                continue;
+            results.add(result);
+            if (DIM_DATE.equals(dim)) {
+                for (LabelAndValue year : result.labelValues) {
+                    FacetResult yearMonths = counts.getTopChildren(12, DIM_DATE, year.label);
+                    if (yearMonths != null)
+                        months.put(year.label, yearMonths);
+                }
+            }
+        }
+
+        LongRangeFacetCounts ranges = new LongRangeFacetCounts(LuceneFx.KEY_ATTACHMENTS, fc, ATTACHMENT_RANGES);
+        results.add(ranges.getAllChildren(DIM_ATTACHMENTS));
+
+        return new Counts(results, months);
+    }
+
+    /**
+     * build the filter selecting one facet value
+     *
+     * @param dim  facet dimension
+     * @param path facet path (label)
+     * @return a non-scoring query matching documents with this facet value
+     */
+    public static Query drillDown(String dim, String... path) {
+        if (DIM_ATTACHMENTS.equals(dim)) {
+            for (LongRange range : ATTACHMENT_RANGES) {
+                if (range.label.equals(path[0])) {
+                    return IntPoint.newRangeQuery(LuceneFx.KEY_ATTACHMENTS, (int) range.min,
+                            (int) Math.min(range.max, Integer.MAX_VALUE));
+                }
+            }
+        }
+        String field = config.getDimConfig(dim).indexFieldName;
+        return new TermQuery(DrillDownQuery.term(field, dim, path));
+    }
+
+    /**
+     * a node of the facet tree in the GUI
+     *
+     * @param dim   facet dimension
+     * @param path  facet path, empty for a dimension node
+     * @param count number of hits
+     */
+    public record FacetItem(String dim, String[] path, int count) {
+
+        public static FacetItem of(FacetResult result) {
+            return new FacetItem(result.dim, result.path, result.value.intValue());
+        }
+
+        public static FacetItem of(FacetResult result, LabelAndValue lv) {
+            String[] path = new String[result.path.length + 1];
+            System.arraycopy(result.path, 0, path, 0, result.path.length);
+            path[result.path.length] = lv.label;
+            return new FacetItem(result.dim, path, lv.value.intValue());
+        }
+
+        /**
+         * @return true if this item is a value that can be used as a filter
+         */
+        public boolean isValue() {
+            return path.length > 0;
+        }
+
+        /**
+         * @return a filter on this value
+         */
+        public Query toQuery() {
+            return drillDown(dim, path);
+        }
+
+        @Override
+        public String toString() {
+            String label = isValue() ? String.join("/", path) : LuceneFx.tr("Facet." + dim, dim);
+            return count >= 0 ? label + " (" + count + ")" : label;
+        }
+    }
+}
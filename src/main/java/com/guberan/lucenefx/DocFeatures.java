@@ -0,0 +1,155 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FeatureField;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Static relevance signals of the documents, indexed as {@link FeatureField}s.<br>
+ * Recency, number of attachments and folder weight are added to the BM25 score of the
+ * contents with saturation queries, which keep the top-k early termination of the searcher
+ * (block-max WAND) working, unlike a function query that scores every hit.
+ * Recency is computed when a document is indexed, updating the index refreshes it.
+ */
+public class DocFeatures {
+    private static final Logger log = LoggerFactory.getLogger(DocFeatures.class);
+
+    public static final String FIELD = "features";
+    public static final String RECENCY = "recency";
+    public static final String ATTACHMENTS = "attachments";
+    public static final String FOLDER = "folder";
+
+    // system property of the shard worker processes
+    private static final String FOLDER_WEIGHTS_PROPERTY = "lucenefx.features.folderWeights";
+
+    // age at which the recency feature is halved
+    private static final double HALF_LIFE_DAYS = 90;
+    private static final long DAY_MILLIS = 24L * 3600 * 1000;
+
+    // feature values giving half of the weight
+    private static final float RECENCY_PIVOT = 0.5f;
+    private static final float ATTACHMENTS_PIVOT = 2f;
+    private static final float FOLDER_PIVOT = 1f;
+
+    private final Map<String, Float> folderWeights;
+    private final long now = System.currentTimeMillis();
+
+    /**
+     * boost weights of the features, 0 disables a feature
+     *
+     * @param recency     weight of recent documents
+     * @param attachments weight of documents with attachments
+     * @param folder      weight of the folder weights
+     */
+    public record Weights(float recency, float attachments, float folder) {
+        public static final Weights DEFAULT = new Weights(1f, 0.5f, 1f);
+    }
+
+    /**
+     * DocFeatures
+     *
+     * @param folderWeights weight of top-level folders, other folders have no folder feature
+     */
+    public DocFeatures(Map<String, Float> folderWeights) {
+        this.folderWeights = Map.copyOf(folderWeights);
+    }
+
+    /**
+     * @param doc          document being indexed
+     * @param lastModified modification time
+     */
+    public void addRecency(Document doc, long lastModified) {
+        double ageDays = Math.max(0, now - lastModified) / (double) DAY_MILLIS;
+        float recency = (float) (HALF_LIFE_DAYS / (HALF_LIFE_DAYS + ageDays));
+        doc.add(new FeatureField(FIELD, RECENCY, Math.max(recency, Float.MIN_NORMAL)));
+    }
+
+    /**
+     * @param doc         document being indexed
+     * @param attachments number of attachments
+     */
+    public void addAttachments(Document doc, int attachments) {
+        if (attachments > 0)
+            doc.add(new FeatureField(FIELD, ATTACHMENTS, attachments));
+    }
+
+    /**
+     * @param doc     document being indexed
+     * @param docPath root of the document directory
+     * @param file    indexed file
+     */
+    public void addFolder(Document doc, Path docPath, Path file) {
+        Float weight = folderWeights.get(DocFacets.topFolder(docPath, file));
+        if (weight != null && weight > 0)
+            doc.add(new FeatureField(FIELD, FOLDER, weight));
+    }
+
+    /**
+     * add the features to the score of a query
+     *
+     * @param query   query on the contents
+     * @param weights boost weights
+     * @return query scoring contents and features
+     */
+    public static Query boost(Query query, Weights weights) {
+        if (weights.recency() <= 0 && weights.attachments() <= 0 && weights.folder() <= 0)
+            return query;
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(query, BooleanClause.Occur.MUST);
+        if (weights.recency() > 0)
+            builder.add(FeatureField.newSaturationQuery(FIELD, RECENCY, weights.recency(), RECENCY_PIVOT),
+                    BooleanClause.Occur.SHOULD);
+        if (weights.attachments() > 0)
+            builder.add(FeatureField.newSaturationQuery(FIELD, ATTACHMENTS, weights.attachments(), ATTACHMENTS_PIVOT),
+                    BooleanClause.Occur.SHOULD);
+        if (weights.folder() > 0)
+            builder.add(FeatureField.newSaturationQuery(FIELD, FOLDER, weights.folder(), FOLDER_PIVOT),
+                    BooleanClause.Occur.SHOULD);
+        return builder.build();
+    }
+
+    /**
+     * @return options of a java command running a shard worker with these features
+     */
+    public List<String> toJavaOptions() {
+        return List.of("-D" + FOLDER_WEIGHTS_PROPERTY + "=" + folderWeights.entrySet().stream()
+                .map(e -> e.getKey() + "=" + e.getValue()).collect(Collectors.joining(",")));
+    }
+
+    /**
+     * @return features of a shard worker, set by the parent process with toJavaOptions()
+     */
+    public static DocFeatures fromSystemProperties() {
+        return new DocFeatures(parseFolderWeights(System.getProperty(FOLDER_WEIGHTS_PROPERTY, "")));
+    }
+
+    /**
+     * @param text folder weights, e.g. {@code inbox=2, archive=0.5}
+     * @return weight by folder name, invalid entries are ignored
+     */
+    public static Map<String, Float> parseFolderWeights(String text) {
+        Map<String, Float> weights = new HashMap<>();
+        for (String entry : text.split(",")) {
+            int i = entry.lastIndexOf('=');
+            if (i <= 0)
+                continue;
+            try {
+                weights.put(entry.substring(0, i).trim(), Float.parseFloat(entry.substring(i + 1).trim()));
+            } catch (NumberFormatException e) {
+                log.debug("Invalid folder weight '{}'", entry);
+            }
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,282 @@
+package com.guberan.lucenefx;
+
+import javafx.concurrent.Task;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.NumberFormat;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Export of all the hits of a query, path, modification date and number of attachments, as CSV or
+ * as JSON lines (output file ending with .jsonl).<br>
+ * Hits are written as they are collected, segment by segment in document order, without scores nor
+ * sorting: memory does not depend on the number of hits. The numbers are read from doc values, the path
+ * from the stored fields (the path has no doc values, they would grow every index for this export only).
+ * An export cancelled or failed is deleted. Also a command line tool:
+ * <pre>
+ * java -cp LuceneFx.jar com.guberan.lucenefx.ExportTask indexPath query output.csv|output.jsonl
+ * </pre>
+ */
+public class ExportTask extends Task<Long> {
+    private static final Logger log = LoggerFactory.getLogger(ExportTask.class);
+
+    private static final int PROGRESS_ROWS = 4096;
+
+    private final IndexReader reader;
+    private final Query query;
+    private final Path output;
+    private final boolean jsonLines;
+
+    private long rows;
+
+    /**
+     * ExportTask
+     *
+     * @param reader reader of the opened index, kept open until the export ends
+     * @param query  query, with its filters
+     * @param output output file, JSON lines if its name ends with .jsonl, CSV otherwise
+     */
+    public ExportTask(IndexReader reader, Query query, Path output) {
+        reader.incRef();
+        this.reader = reader;
+        this.query = query;
+        this.output = output;
+        this.jsonLines = output.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".jsonl");
+    }
+
+    /**
+     * @return number of hits exported
+     */
+    @Override
+    protected Long call() throws IOException {
+        long start = System.currentTimeMillis();
+        updateMessage(LuceneFx.tr("ExportTask.export", "", 0));
+        boolean complete = false;
+        try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            if (!jsonLines)
+                out.write("path,modified,attachments\n");
+            // without executor: a single collector writes the segments one after the other
+            new IndexSearcher(reader).search(query, new CollectorManager<Collector, Long>() {
+                @Override
+                public Collector newCollector() {
+                    return new ExportCollector(out);
+                }
+
+                @Override
+                public Long reduce(Collection<Collector> collectors) {
+                    return rows;
+                }
+            });
+            complete = !isCancelled();
+        } catch (CancelledException e) {
+            // stopped by the collector
+        } finally {
+            reader.decRef();
+            if (!complete)
+                Files.deleteIfExists(output);
+        }
+
+        if (!complete) {
+            log.info("export to '{}' cancelled after {} rows", output, rows);
+            return rows;
+        }
+        log.info("{} hits exported to '{}' in {} ms", rows, output, System.currentTimeMillis() - start);
+        updateProgress(1, 1);
+        updateMessage(LuceneFx.tr("ExportTask.done", "", NumberFormat.getIntegerInstance().format(rows), output));
+        return rows;
+    }
+
+    /**
+     * writes the hits as they are collected
+     */
+    private class ExportCollector implements Collector {
+        private final Writer out;
+        private final int maxDoc = reader.maxDoc();
+        private final StringBuilder row = new StringBuilder();
+
+        ExportCollector(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            StoredFields storedFields = context.reader().storedFields();
+            SortedNumericDocValues modified = DocValues.getSortedNumeric(context.reader(), LuceneFx.KEY_MODIFIED);
+            SortedNumericDocValues attachments = DocValues.getSortedNumeric(context.reader(), LuceneFx.KEY_ATTACHMENTS);
+            PathVisitor path = new PathVisitor();
+
+            return new LeafCollector() {
+                @Override
+                public void setScorer(Scorable scorer) {
+                }
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    path.value = null;
+                    storedFields.document(doc, path);
+                    long millis = modified.advanceExact(doc) ? modified.nextValue() : 0;
+                    long count = attachments.advanceExact(doc) ? attachments.nextValue() : 0;
+                    writeRow(path.value, millis, count);
+
+                    if (++rows % PROGRESS_ROWS == 0) {
+                        if (isCancelled())
+                            throw new CancelledException();
+                        updateProgress(context.docBase + doc, maxDoc);
+                        updateMessage(LuceneFx.tr("ExportTask.export", "", NumberFormat.getIntegerInstance().format(rows)));
+                    }
+                }
+            };
+        }
+
+        private void writeRow(String path, long modified, long attachments) throws IOException {
+            row.setLength(0);
+            String date = (modified == 0) ? "" : Instant.ofEpochMilli(modified).toString();
+            if (jsonLines) {
+                row.append("{\"path\":");
+                appendJson(row, (path == null) ? "" : path);
+                row.append(",\"modified\":");
+                appendJson(row, date);
+                row.append(",\"attachments\":").append(attachments).append("}\n");
+            } else {
+                appendCsv(row, (path == null) ? "" : path);
+                row.append(',').append(date).append(',').append(attachments).append('\n');
+            }
+            out.append(row);
+        }
+    }
+
+    /**
+     * reads the path only, the first stored field of a document
+     */
+    private static class PathVisitor extends StoredFieldVisitor {
+        String value;
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (value != null)
+                return Status.STOP;
+            return LuceneFx.KEY_PATH.equals(fieldInfo.name) ? Status.YES : Status.NO;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, String value) {
+            this.value = value;
+        }
+    }
+
+    private static class CancelledException extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        CancelledException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * append a CSV value, quoted if needed (RFC 4180)
+     */
+    static void appendCsv(StringBuilder sb, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"')
+                sb.append('"');
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    /**
+     * append a JSON string
+     */
+    static void appendJson(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * export the hits of a query from the command line
+     *
+     * @param args indexPath query output
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("usage: ExportTask indexPath query output.csv|output.jsonl");
+            System.exit(2);
+        }
+        try (Directory dir = FSDirectory.open(Path.of(args[0]));
+             DirectoryReader reader = DirectoryReader.open(dir)) {
+            SearchQueryParser parser = new SearchQueryParser(Startup.analyzer());
+            parser.setPhraseSearch(IndexProfile.read(dir).positions());
+            ExportTask task = new ExportTask(reader, parser.parse(args[1]), Path.of(args[2])) {
+                @Override
+                protected void updateProgress(long workDone, long max) {
+                    // no FX toolkit, the count is printed at the end
+                }
+
+                @Override
+                protected void updateMessage(String message) {
+                }
+            };
+            System.out.println(task.call() + " hits exported to " + args[2]);
+        }
+        System.exit(0);
+    }
+}
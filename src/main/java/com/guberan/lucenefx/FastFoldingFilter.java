@@ -0,0 +1,71 @@
+package com.guberan.lucenefx;
+
+import com.ibm.icu.text.Normalizer;
+import com.ibm.icu.text.Normalizer2;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.icu.ICUFoldingFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.IOException;
+
+/**
+ * Same output as {@link ICUFoldingFilter}, faster for ASCII tokens.<br>
+ * ASCII characters have no accents nor compositions, so an ASCII token is folded character by
+ * character with a table built from the ICU folding itself, in place. Other tokens are folded by ICU.
+ */
+public final class FastFoldingFilter extends TokenFilter {
+
+    private static final Normalizer2 NORMALIZER = ICUFoldingFilter.NORMALIZER;
+
+    // folding of each ASCII character, 0 if it is not folded to a single ASCII character
+    private static final char[] ASCII_FOLDING = new char[128];
+
+    static {
+        for (char c = 0; c < ASCII_FOLDING.length; c++) {
+            String folded = NORMALIZER.normalize(String.valueOf(c));
+            if (folded.length() == 1 && folded.charAt(0) < ASCII_FOLDING.length)
+                ASCII_FOLDING[c] = folded.charAt(0);
+        }
+    }
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final StringBuilder buffer = new StringBuilder();
+
+    public FastFoldingFilter(TokenStream input) {
+        super(input);
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (!input.incrementToken())
+            return false;
+
+        if (!foldAscii(termAtt.buffer(), termAtt.length())) {
+            // as ICUNormalizer2Filter
+            if (NORMALIZER.quickCheck(termAtt) != Normalizer.YES) {
+                buffer.setLength(0);
+                NORMALIZER.normalize(termAtt, buffer);
+                termAtt.setEmpty().append(buffer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * fold an ASCII token in place
+     *
+     * @return false, and the token unchanged, if the token needs ICU
+     */
+    private static boolean foldAscii(char[] term, int length) {
+        for (int i = 0; i < length; i++) {
+            char c = term[i];
+            if (c >= ASCII_FOLDING.length || ASCII_FOLDING[c] == 0)
+                return false;
+        }
+        for (int i = 0; i < length; i++) {
+            term[i] = ASCII_FOLDING[term[i]];
+        }
+        return true;
+    }
+}
@@ -0,0 +1,165 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.ngram.NGramTokenizer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * File name fields, for searching files by a part of their name without scanning the term dictionary.
+ * <ul>
+ * <li>name: words of the file name, e.g. {@code name:report}</li>
+ * <li>nameKey: whole lowercase file name, for patterns too complex for the trigrams</li>
+ * <li>nameGrams: trigrams of the lowercase file name between a start and an end mark,
+ * {@code *port*} is the phrase "por ort", {@code *.pdf} the phrase ".pd pdf df$"
+ * and {@code rep*} the phrase "^re rep"</li>
+ * </ul>
+ * Substrings, prefixes and suffixes are searched on the postings of a few trigrams instead of
+ * scanning the term dictionary. Leading wildcards without a field are searched on the file name,
+ * see SearchQueryParser; with a field, e.g. {@code contents:*port}, they stay on that field.
+ */
+public class FileNameFields {
+
+    public static final String NAME = "name";
+    public static final String NAME_KEY = "nameKey";
+    public static final String NAME_GRAMS = "nameGrams";
+
+    private static final int GRAM_SIZE = 3;
+    // marks of the start and of the end of the file name in the trigrams
+    private static final char START = '\u0002';
+    private static final char END = '\u0003';
+
+    // trigrams at consecutive positions, the value is already lowercase
+    private static final Analyzer GRAM_ANALYZER = new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            return new TokenStreamComponents(new NGramTokenizer(GRAM_SIZE, GRAM_SIZE));
+        }
+    };
+
+    private FileNameFields() {
+    }
+
+    /**
+     * @param defaultAnalyzer analyzer of the other fields
+     * @param nameAnalyzer    analyzer of the name words, the one used to parse queries
+     * @return analyzer for indexing documents with file name fields
+     */
+    public static Analyzer wrap(Analyzer defaultAnalyzer, Analyzer nameAnalyzer) {
+        return new PerFieldAnalyzerWrapper(defaultAnalyzer, Map.of(NAME, nameAnalyzer, NAME_GRAMS, GRAM_ANALYZER));
+    }
+
+    /**
+     * add the file name fields to a document
+     *
+     * @param doc  document being indexed
+     * @param path path of the file, or of an entry of a container
+     */
+    public static void add(Document doc, String path) {
+        String name = fileName(path);
+        String key = name.toLowerCase(Locale.ROOT);
+        doc.add(new TextField(NAME, name, Field.Store.NO));
+        doc.add(new StringField(NAME_KEY, key, Field.Store.NO));
+        doc.add(new TextField(NAME_GRAMS, START + key + END, Field.Store.NO));
+    }
+
+    /**
+     * @return last element of a path, separators of all platforms and of containers included
+     */
+    static String fileName(String path) {
+        int i = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        return path.substring(i + 1);
+    }
+
+    /**
+     * route wildcard queries on the name to the file name fields
+     *
+     * @param query parsed query
+     * @return query searching substrings and suffixes on the file name fields
+     */
+    public static Query rewrite(Query query) {
+        if (query instanceof WildcardQuery wildcard) {
+            String field = wildcard.getField();
+            String text = wildcard.getTerm().text().toLowerCase(Locale.ROOT);
+            if (NAME.equals(field))
+                return wildcard(text);
+            return query;
+        }
+        if (query instanceof BooleanQuery bool) {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setMinimumNumberShouldMatch(bool.getMinimumNumberShouldMatch());
+            for (BooleanClause clause : bool.clauses()) {
+                builder.add(rewrite(clause.query()), clause.occur());
+            }
+            return builder.build();
+        }
+        if (query instanceof BoostQuery boost)
+            return new BoostQuery(rewrite(boost.getQuery()), boost.getBoost());
+        return query;
+    }
+
+    /**
+     * @param pattern lowercase wildcard pattern on the whole file name
+     */
+    private static Query wildcard(String pattern) {
+        int last = pattern.length() - 1;
+        boolean leading = pattern.charAt(0) == WildcardQuery.WILDCARD_STRING;
+        boolean trailing = last > 0 && pattern.charAt(last) == WildcardQuery.WILDCARD_STRING;
+        String inner = pattern.substring(leading ? 1 : 0, trailing ? last : last + 1);
+
+        if (!inner.isEmpty() && !hasWildcard(inner)) {
+            if (leading && trailing)
+                return grams(inner);
+            if (leading)
+                return grams(inner + END);
+            if (trailing)
+                return grams(START + inner);
+        }
+        // other patterns scan the file names only
+        return new WildcardQuery(new Term(NAME_KEY, pattern));
+    }
+
+    /**
+     * @param text lowercase part of a file name
+     * @return query on the trigrams of text
+     */
+    public static Query substring(String text) {
+        return grams(text);
+    }
+
+    /**
+     * @param text lowercase part of a file name, may begin with the start mark or end with the end mark
+     * @return phrase of the consecutive trigrams of text
+     */
+    private static Query grams(String text) {
+        // shorter text is in some trigram thanks to the marks, and the dictionary of the trigrams is small
+        if (text.length() < GRAM_SIZE)
+            return new WildcardQuery(new Term(NAME_GRAMS, "*" + text + "*"));
+        if (text.length() == GRAM_SIZE)
+            return new TermQuery(new Term(NAME_GRAMS, text));
+
+        PhraseQuery.Builder builder = new PhraseQuery.Builder();
+        for (int i = 0; i + GRAM_SIZE <= text.length(); i++) {
+            builder.add(new Term(NAME_GRAMS, text.substring(i, i + GRAM_SIZE)), i);
+        }
+        return builder.build();
+    }
+
+    private static boolean hasWildcard(String text) {
+        return text.indexOf(WildcardQuery.WILDCARD_STRING) >= 0 || text.indexOf(WildcardQuery.WILDCARD_CHAR) >= 0;
+    }
+}
@@ -0,0 +1,213 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Utility methods for the index used when no index location is configured.<br>
+ * The index is kept in the heap ({@link ByteBuffersDirectory}) and can be saved to a snapshot
+ * directory on exit and reloaded on startup. Large document directories fall back to a temporary
+ * directory on disk, deleted when the index is closed.
+ */
+public class IndexDirectories {
+    private static final Logger log = LoggerFactory.getLogger(IndexDirectories.class);
+
+    // expected index size compared to the size of the documents
+    private static final double INDEX_TO_DOCUMENTS_RATIO = 0.25;
+    // part of the heap the memory index may use
+    private static final double MAX_HEAP_RATIO = 0.25;
+
+    private IndexDirectories() {
+    }
+
+    /**
+     * @param docPath document directory
+     * @return true if the index of docPath is expected to fit in the heap
+     */
+    public static boolean fitsInHeap(Path docPath) {
+        long expected = (long) (sizeOf(docPath) * INDEX_TO_DOCUMENTS_RATIO);
+        long available = (long) (Runtime.getRuntime().maxMemory() * MAX_HEAP_RATIO);
+        log.info("expected index size {} MB, memory index limit {} MB", expected >> 20, available >> 20);
+        return expected <= available;
+    }
+
+    /**
+     * @param snapshotPath snapshot directory, may be empty
+     * @param docPath      document directory
+     * @return true if snapshotPath contains an index of docPath, the index of another directory is ignored
+     */
+    public static boolean hasSnapshot(Path snapshotPath, Path docPath) {
+        if (snapshotPath == null || snapshotPath.toString().isEmpty())
+            return false;
+        // interrupted while replaced, the previous snapshot is still aside
+        Path previousPath = previousPath(snapshotPath);
+        if (!Files.exists(snapshotPath) && Files.isDirectory(previousPath)) {
+            try {
+                Files.move(previousPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("Could not restore the snapshot '{}'", previousPath, e);
+            }
+        }
+        if (!Files.isDirectory(snapshotPath))
+            return false;
+        try (Directory snapshot = FSDirectory.open(snapshotPath)) {
+            if (!DirectoryReader.indexExists(snapshot))
+                return false;
+            if (!IndexTask.isIndexOf(snapshot, docPath)) {
+                log.info("snapshot '{}' is not an index of '{}', ignored", snapshotPath, docPath);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * load a snapshot in a new memory index
+     *
+     * @param snapshotPath snapshot directory
+     * @return memory directory containing a copy of the snapshot
+     */
+    public static Directory loadSnapshot(Path snapshotPath) throws IOException {
+        long start = System.currentTimeMillis();
+        ByteBuffersDirectory dir = new ByteBuffersDirectory();
+        try (Directory snapshot = FSDirectory.open(snapshotPath)) {
+            for (String file : snapshot.listAll()) {
+                if (!IndexWriter.WRITE_LOCK_NAME.equals(file))
+                    dir.copyFrom(snapshot, file, file, IOContext.READONCE);
+            }
+        }
+        log.info("snapshot '{}' loaded in {} ms", snapshotPath, System.currentTimeMillis() - start);
+        return dir;
+    }
+
+    /**
+     * save the memory index to the snapshot directory.<br>
+     * The index is written to a sibling directory first, which then replaces the previous snapshot;
+     * the previous snapshot is moved aside and deleted only once replaced.
+     *
+     * @param dir          memory index
+     * @param snapshotPath snapshot directory
+     */
+    public static void saveSnapshot(Directory dir, Path snapshotPath) throws IOException {
+        long start = System.currentTimeMillis();
+        Path tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        if (Files.exists(tempPath))
+            deleteRecursively(tempPath);
+
+        try (Directory snapshot = FSDirectory.open(tempPath)) {
+            List<String> files = new ArrayList<>();
+            for (String file : dir.listAll()) {
+                if (!IndexWriter.WRITE_LOCK_NAME.equals(file)) {
+                    snapshot.copyFrom(dir, file, file, IOContext.DEFAULT);
+                    files.add(file);
+                }
+            }
+            snapshot.sync(files);
+        }
+
+        Path previousPath = previousPath(snapshotPath);
+        if (Files.exists(previousPath))
+            deleteRecursively(previousPath);
+        if (Files.exists(snapshotPath))
+            Files.move(snapshotPath, previousPath, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tempPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE);
+        if (Files.exists(previousPath))
+            deleteRecursively(previousPath);
+        log.info("memory index saved to '{}' in {} ms", snapshotPath, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return directory of the previous snapshot while it is replaced
+     */
+    private static Path previousPath(Path snapshotPath) {
+        return snapshotPath.resolveSibling(snapshotPath.getFileName() + ".old");
+    }
+
+    /**
+     * open an index in a temporary directory, used when the index does not fit in the heap
+     *
+     * @param tempPath temporary directory
+     * @return directory
+     */
+    public static Directory openTemporary(Path tempPath) throws IOException {
+        log.info("index too large for memory, using temporary directory '{}'", tempPath);
+        return new MMapDirectory(tempPath);
+    }
+
+    /**
+     * delete a directory and its contents
+     *
+     * @param path directory to delete
+     */
+    public static void deleteRecursively(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    log.warn("Could not delete {}", p);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Could not delete {}", path);
+        }
+    }
+
+    /**
+     * @param dir index directory
+     * @return total size of the index files
+     */
+    public static long sizeOf(Directory dir) throws IOException {
+        long size = 0;
+        for (String file : dir.listAll()) {
+            size += dir.fileLength(file);
+        }
+        return size;
+    }
+
+    /**
+     * @param path directory
+     * @return total size of the files in path
+     */
+    public static long sizeOf(Path path) {
+        long[] size = {0};
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    size[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.debug("Could not compute size of {}", path, e);
+        }
+        return size[0];
+    }
+}
@@ -0,0 +1,240 @@
+package com.guberan.lucenefx;
+
+import org.apache.tika.Tika;
+import org.apache.tika.mime.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Files of the document directory worth indexing, decided before they are read.<br>
+ * Include and exclude rules are comma separated globs: a glob without '/' matches the name of a file
+ * or folder, a glob with '/' its path relative to the document directory. Excluded folders are not
+ * walked. Files larger than the maximum size, and media or binary files (videos, disk images,
+ * executables...), are not converted: they are indexed without contents (name, date and type),
+ * or skipped. A file is only found binary from its first bytes, never from its name alone.
+ */
+public class IndexFilter {
+    private static final Logger log = LoggerFactory.getLogger(IndexFilter.class);
+
+    public static final int DEFAULT_MAX_SIZE_MB = 1024;
+    // all files converted, whatever their size and type
+    public static final IndexFilter NONE = new IndexFilter("", "", 0, false, true);
+
+    // system properties of the shard worker processes
+    private static final String PROPERTY_PREFIX = "lucenefx.filter.";
+
+    private static final int HEADER_BYTES = 8192;
+    private static final Set<String> BINARY_TYPES = Set.of(
+            "application/octet-stream",
+            "application/x-iso9660-image",
+            "application/x-apple-diskimage",
+            "application/x-raw-disk-image",
+            "application/x-vmdk",
+            "application/x-virtualbox-vdi",
+            "application/x-qemu-disk",
+            "application/x-msdownload",
+            "application/x-dosexec",
+            "application/x-executable",
+            "application/x-sharedlib",
+            "application/x-mach-o-executable",
+            "application/java-vm");
+
+    private final String include;
+    private final String exclude;
+    private final long maxSize;
+    private final boolean binaries;
+    private final boolean nameOnly;
+
+    private final List<String> includeGlobs;
+    private final List<String> excludeGlobs;
+    private Path matchersRoot;
+    private List<Glob> includeMatchers;
+    private List<Glob> excludeMatchers;
+
+    /**
+     * a compiled glob, matching a name or a relative path
+     */
+    private record Glob(PathMatcher matcher, boolean relative) {
+        boolean matches(Path docPath, Path path) {
+            return relative ? matcher.matches(docPath.relativize(path)) : matcher.matches(path.getFileName());
+        }
+    }
+
+    /**
+     * IndexFilter
+     *
+     * @param include  globs of the files indexed, empty for all files
+     * @param exclude  globs of the files and folders not indexed
+     * @param maxSize  bytes of the largest file converted, 0 for no limit
+     * @param binaries true to not convert media and binary files
+     * @param nameOnly true to index the files not converted without contents, false to skip them
+     */
+    public IndexFilter(String include, String exclude, long maxSize, boolean binaries, boolean nameOnly) {
+        this.include = include;
+        this.exclude = exclude;
+        this.maxSize = maxSize;
+        this.binaries = binaries;
+        this.nameOnly = nameOnly;
+        this.includeGlobs = parseGlobs(include);
+        this.excludeGlobs = parseGlobs(exclude);
+    }
+
+    /**
+     * @return globs of a comma separated list
+     */
+    private static List<String> parseGlobs(String text) {
+        List<String> globs = new ArrayList<>();
+        for (String glob : text.split(",")) {
+            if (!glob.isBlank())
+                globs.add(glob.trim());
+        }
+        return globs;
+    }
+
+    /**
+     * compile the globs for the file system of the document directory
+     */
+    private void compile(Path docPath) {
+        if (docPath.equals(matchersRoot))
+            return;
+        includeMatchers = compile(docPath, includeGlobs);
+        excludeMatchers = compile(docPath, excludeGlobs);
+        matchersRoot = docPath;
+    }
+
+    private static List<Glob> compile(Path docPath, List<String> globs) {
+        List<Glob> matchers = new ArrayList<>();
+        for (String glob : globs) {
+            try {
+                matchers.add(new Glob(docPath.getFileSystem().getPathMatcher("glob:" + glob), glob.indexOf('/') >= 0));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid glob '{}' ignored", glob);
+            }
+        }
+        return matchers;
+    }
+
+    private static boolean matches(List<Glob> globs, Path docPath, Path path) {
+        for (Glob glob : globs) {
+            if (glob.matches(docPath, path))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param docPath document directory
+     * @param dir     folder of the walk
+     * @return true if the folder is excluded, and not walked
+     */
+    public boolean excludesFolder(Path docPath, Path dir) {
+        if (excludeGlobs.isEmpty() || dir.equals(docPath))
+            return false;
+        compile(docPath);
+        return matches(excludeMatchers, docPath, dir);
+    }
+
+    /**
+     * @param docPath document directory
+     * @param file    file of the walk
+     * @return true if the file is included and not excluded
+     */
+    public boolean accepts(Path docPath, Path file) {
+        if (includeGlobs.isEmpty() && excludeGlobs.isEmpty())
+            return true;
+        compile(docPath);
+        return (includeMatchers.isEmpty() || matches(includeMatchers, docPath, file))
+                && !matches(excludeMatchers, docPath, file);
+    }
+
+    /**
+     * decide if a file is converted, reading at most its first bytes
+     *
+     * @param file file to index
+     * @param size size of the file
+     * @param tika Tika facade, for the type detection
+     * @return MIME type of a file that is not converted, null if the file is converted
+     */
+    public String withoutContents(Path file, long size, Tika tika) {
+        if (maxSize > 0 && size > maxSize)
+            return tika.detect(file.getFileName().toString());
+        if (!binaries)
+            return null;
+
+        // the name is enough for documents, the first bytes confirm a binary or unknown type
+        String mimeType = tika.detect(file.getFileName().toString());
+        if (!isBinary(mimeType))
+            return null;
+        byte[] header;
+        try (InputStream in = Files.newInputStream(file)) {
+            header = in.readNBytes(HEADER_BYTES);
+        } catch (IOException e) {
+            // reported by the conversion
+            return null;
+        }
+        mimeType = tika.detect(header, file.getFileName().toString());
+        return isBinary(mimeType) ? mimeType : null;
+    }
+
+    /**
+     * @return true for media, disk images, executables and unknown binary data
+     */
+    static boolean isBinary(String mimeType) {
+        MediaType type = MediaType.parse(mimeType);
+        if (type == null)
+            return false;
+        String base = type.getBaseType().toString();
+        return switch (type.getType()) {
+            case "video", "audio", "font" -> true;
+            case "image" -> !base.equals("image/svg+xml");
+            default -> BINARY_TYPES.contains(base);
+        };
+    }
+
+    /**
+     * @return true to index the files not converted without contents, false to skip them
+     */
+    public boolean nameOnly() {
+        return nameOnly;
+    }
+
+    /**
+     * @return options of a java command running a shard worker with this filter
+     */
+    public List<String> toJavaOptions() {
+        return List.of(
+                "-D" + PROPERTY_PREFIX + "include=" + include,
+                "-D" + PROPERTY_PREFIX + "exclude=" + exclude,
+                "-D" + PROPERTY_PREFIX + "maxSize=" + maxSize,
+                "-D" + PROPERTY_PREFIX + "binaries=" + binaries,
+                "-D" + PROPERTY_PREFIX + "nameOnly=" + nameOnly);
+    }
+
+    /**
+     * @return filter of a shard worker, set by the parent process with toJavaOptions()
+     */
+    public static IndexFilter fromSystemProperties() {
+        if (System.getProperty(PROPERTY_PREFIX + "maxSize") == null)
+            return NONE;
+        return new IndexFilter(System.getProperty(PROPERTY_PREFIX + "include", ""),
+                System.getProperty(PROPERTY_PREFIX + "exclude", ""),
+                Long.getLong(PROPERTY_PREFIX + "maxSize", 0),
+                Boolean.getBoolean(PROPERTY_PREFIX + "binaries"),
+                Boolean.getBoolean(PROPERTY_PREFIX + "nameOnly"));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("include '%s', exclude '%s', max size %d MB, binaries %s, %s", include, exclude,
+                maxSize >> 20, binaries ? "not converted" : "converted", nameOnly ? "name only" : "skipped");
+    }
+}
@@ -0,0 +1,113 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.lucene101.Lucene101Codec;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Index profiles, chosen in the preferences and recorded in the commit user data of the index.
+ * <ul>
+ * <li>fast: default codec, numbers stored with the documents, positions indexed (phrase search),
+ * doc values preloaded in memory when the index is opened</li>
+ * <li>compact: stored fields with best compression, numbers read from doc values only,
+ * no positions (phrase queries are searched as all of their words)</li>
+ * </ul>
+ * Changing the profile of an index rebuilds it, index options of a field cannot change.
+ */
+public enum IndexProfile {
+    FAST(false, true, true),
+    COMPACT(true, false, false);
+
+    // commit user data key
+    public static final String COMMIT_PROFILE = "profile";
+
+    private static final FieldType CONTENTS_NO_POSITIONS = new FieldType(TextField.TYPE_NOT_STORED);
+
+    static {
+        CONTENTS_NO_POSITIONS.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        CONTENTS_NO_POSITIONS.freeze();
+    }
+
+    private final boolean bestCompression;
+    private final boolean storeNumbers;
+    private final boolean positions;
+
+    IndexProfile(boolean bestCompression, boolean storeNumbers, boolean positions) {
+        this.bestCompression = bestCompression;
+        this.storeNumbers = storeNumbers;
+        this.positions = positions;
+    }
+
+    /**
+     * @return codec used to write the index
+     */
+    public Codec codec() {
+        return bestCompression ? new Lucene101Codec(Lucene101Codec.Mode.BEST_COMPRESSION) : Codec.getDefault();
+    }
+
+    /**
+     * @return true if modified and attachments are stored fields as well as doc values
+     */
+    public boolean storeNumbers() {
+        return storeNumbers;
+    }
+
+    /**
+     * @return true if positions of contents are indexed, needed by phrase queries
+     */
+    public boolean positions() {
+        return positions;
+    }
+
+    /**
+     * @return true if doc values files are loaded in memory whatever their size
+     */
+    public boolean preloadDocValues() {
+        return this == FAST;
+    }
+
+    /**
+     * @return field type of the contents
+     */
+    public FieldType contentsType() {
+        return positions ? TextField.TYPE_NOT_STORED : CONTENTS_NO_POSITIONS;
+    }
+
+    /**
+     * @param name profile name, as saved in the preferences
+     * @return profile, fast if name is unknown
+     */
+    public static IndexProfile of(String name) {
+        for (IndexProfile profile : values()) {
+            if (profile.name().equalsIgnoreCase(name))
+                return profile;
+        }
+        return FAST;
+    }
+
+    /**
+     * @param dir index directory
+     * @return profile of the latest commit, fast for indexes written before profiles existed
+     */
+    public static IndexProfile read(Directory dir) throws IOException {
+        if (!DirectoryReader.indexExists(dir))
+            return FAST;
+        return of(SegmentInfos.readLatestCommit(dir).getUserData().get(COMMIT_PROFILE));
+    }
+
+    /**
+     * @return name displayed in the preferences
+     */
+    @Override
+    public String toString() {
+        return LuceneFx.tr("IndexProfile." + name().toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,274 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replication of an index to a directory on a mounted path, searched read-only by other LuceneFx instances.<br>
+ * Index files are written once and never modified, so a commit is replicated by copying the files the
+ * replica does not have yet: the segment files first, then the commit point, written under a temporary name
+ * renamed once synced, with a generation and a version above the previous commit point of the replica. A client opening or refreshing the replica sees the previous commit or the new one,
+ * never a partial copy. The files of the previous commit are kept until the next replication, for the
+ * clients that listed it just before the new one arrived; files of older commits are deleted, or at the
+ * next replication if a client still has them open on Windows.<br>
+ * A commit of another index, as a memory index or a rebuilt index starting again from _0, replaces the replica
+ * if its files have the names of the files of the latest commit: the commit points of the replica are deleted
+ * first, then its files, so that no file of a commit a client may open is ever rewritten.<br>
+ * While the index writer is open, the commit is protected by a {@link SnapshotDeletionPolicy} (hot snapshot).
+ * An index written by another process is replicated from its latest commit, and again from the next one if
+ * the writer deleted files during the copy:
+ * <pre>
+ * java -cp LuceneFx.jar com.guberan.lucenefx.IndexReplicator indexPath replicaPath
+ * </pre>
+ */
+public class IndexReplicator {
+    private static final Logger log = LoggerFactory.getLogger(IndexReplicator.class);
+
+    // written in the replica, LuceneFx opens a directory containing it read-only
+    public static final String REPLICA_MARKER = "lucenefx.replica";
+
+    // attempts to copy the latest commit of an index written by another process
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final Path replicaPath;
+
+    /**
+     * IndexReplicator
+     *
+     * @param replicaPath replica directory, created if needed
+     */
+    public IndexReplicator(Path replicaPath) {
+        this.replicaPath = replicaPath;
+    }
+
+    /**
+     * @param indexPath index directory
+     * @return true if indexPath is a replica, searched read-only
+     */
+    public static boolean isReplica(Path indexPath) {
+        return Files.isRegularFile(indexPath.resolve(REPLICA_MARKER));
+    }
+
+    /**
+     * replicate the latest commit of a writer, protected from deletion while it is copied
+     *
+     * @param source    index directory of the writer
+     * @param snapshots deletion policy of the writer
+     */
+    public void replicate(Directory source, SnapshotDeletionPolicy snapshots) throws IOException {
+        IndexCommit commit = snapshots.snapshot();
+        try {
+            replicate(source, commit);
+        } finally {
+            snapshots.release(commit);
+        }
+    }
+
+    /**
+     * replicate the latest commit of an index that may be written by another process
+     *
+     * @param source index directory
+     */
+    public void replicate(Directory source) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            List<IndexCommit> commits = DirectoryReader.listCommits(source);
+            try {
+                replicate(source, commits.get(commits.size() - 1));
+                return;
+            } catch (NoSuchFileException | FileNotFoundException e) {
+                // the commit was replaced during the copy, copy the new one
+                if (attempt == MAX_ATTEMPTS)
+                    throw e;
+                log.info("commit replaced during replication, retrying ({})", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * copy the files of commit missing in the replica, then write its commit point, then delete older files
+     *
+     * @param source index directory
+     * @param commit commit to replicate, its files must not be deleted during the copy
+     */
+    public void replicate(Directory source, IndexCommit commit) throws IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(replicaPath);
+        try (Directory replica = FSDirectory.open(replicaPath)) {
+            String segments = commit.getSegmentsFileName();
+            SegmentInfos latest = latestCommit(replica);
+            Set<String> previous = (latest == null) ? Set.of() : new HashSet<>(latest.files(true));
+            if (!follows(source, replica, commit, previous)) {
+                log.info("{} is not a later commit of the index of '{}', replacing the replica", segments, replicaPath);
+                clear(replica);
+                previous = Set.of();
+            }
+            Set<String> existing = Set.of(replica.listAll());
+
+            long bytes = 0;
+            List<String> copied = new ArrayList<>();
+            for (String file : commit.getFileNames()) {
+                if (file.equals(segments) || (existing.contains(file) && sameFile(source, replica, file)))
+                    continue;
+                if (existing.contains(file))
+                    replica.deleteFile(file); // left by an older commit or an interrupted copy
+                replica.copyFrom(source, file, file, IOContext.DEFAULT);
+                bytes += source.fileLength(file);
+                copied.add(file);
+            }
+            replica.sync(copied);
+
+            // the commit point last: readers see the new commit once all its files are there
+            SegmentInfos infos = latest;
+            if (latest == null || !copied.isEmpty() || !isCommitted(latest, commit)) {
+                infos = SegmentInfos.readCommit(source, segments);
+                // above the commit of the replica, even if the index started again from segments_1,
+                // so that clients open the new commit
+                if (latest != null) {
+                    infos.setNextWriteGeneration(Math.max(infos.getGeneration(), latest.getGeneration()));
+                    infos.version = Math.max(infos.getVersion(), latest.getVersion() + 1);
+                }
+                infos.commit(replica);
+                bytes += replica.fileLength(infos.getSegmentsFileName());
+                copied.add(infos.getSegmentsFileName());
+            }
+
+            int deleted = deleteOlderFiles(replica, infos.files(true), previous);
+            Files.writeString(replicaPath.resolve(REPLICA_MARKER), "replicated " + Instant.now() + "\n");
+            log.info("{} replicated to '{}' as {} in {} ms: {} files copied ({} MB), {} deleted", segments,
+                    replicaPath, infos.getSegmentsFileName(), System.currentTimeMillis() - start, copied.size(),
+                    bytes >> 20, deleted);
+        }
+    }
+
+    /**
+     * @return true if the latest commit of the replica is commit: same files and same user data
+     */
+    private static boolean isCommitted(SegmentInfos latest, IndexCommit commit) throws IOException {
+        Set<String> files = new HashSet<>(commit.getFileNames());
+        files.remove(commit.getSegmentsFileName());
+        return latest.files(false).equals(files) && latest.getUserData().equals(commit.getUserData());
+    }
+
+    /**
+     * @return true if the replica already has file, same length and same checksum
+     */
+    private static boolean sameFile(Directory source, Directory replica, String file) throws IOException {
+        if (source.fileLength(file) != replica.fileLength(file))
+            return false;
+        try (IndexInput in = source.openInput(file, IOContext.READONCE);
+             IndexInput copy = replica.openInput(file, IOContext.READONCE)) {
+            return CodecUtil.retrieveChecksum(in) == CodecUtil.retrieveChecksum(copy);
+        } catch (IOException e) {
+            // truncated copy, or a file without codec footer
+            return false;
+        }
+    }
+
+    /**
+     * @param previous files of the latest commit of the replica
+     * @return true if commit can be copied next to the latest commit of the replica: none of its files has
+     * the name of a file of that commit with other contents
+     */
+    private static boolean follows(Directory source, Directory replica, IndexCommit commit, Set<String> previous)
+            throws IOException {
+        for (String file : commit.getFileNames()) {
+            if (!file.equals(commit.getSegmentsFileName()) && previous.contains(file) && !sameFile(source, replica, file))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * delete the commit points of the replica, then the other index files
+     */
+    private static void clear(Directory replica) throws IOException {
+        List<String> files = new ArrayList<>(List.of(replica.listAll()));
+        files.removeAll(List.of(REPLICA_MARKER, IndexWriter.WRITE_LOCK_NAME));
+        // no client opens a commit whose files are being deleted
+        files.sort(Comparator.comparing((String file) -> !file.startsWith(IndexFileNames.SEGMENTS)));
+        for (String file : files) {
+            replica.deleteFile(file);
+        }
+        replica.syncMetaData();
+    }
+
+    /**
+     * @return latest commit of the replica, null if it has none
+     */
+    private static SegmentInfos latestCommit(Directory replica) {
+        try {
+            if (!DirectoryReader.indexExists(replica))
+                return null;
+            return SegmentInfos.readLatestCommit(replica);
+        } catch (IOException e) {
+            log.debug("Could not read the commit of the replica, its files are not kept", e);
+            return null;
+        }
+    }
+
+    /**
+     * delete the files that are neither part of the new commit nor of the previous commit, including
+     * the segments_N files of older commits
+     *
+     * @param files    files of the new commit of the replica
+     * @param previous files of the previous commit of the replica
+     * @return number of files deleted
+     */
+    private static int deleteOlderFiles(Directory replica, Collection<String> files, Set<String> previous)
+            throws IOException {
+        Set<String> keep = new HashSet<>(files);
+        keep.addAll(previous);
+        keep.add(REPLICA_MARKER);
+        int deleted = 0;
+        for (String file : replica.listAll()) {
+            if (keep.contains(file) || IndexWriter.WRITE_LOCK_NAME.equals(file))
+                continue;
+            try {
+                replica.deleteFile(file);
+                deleted++;
+            } catch (IOException e) {
+                log.debug("Could not delete {} from replica, still open", file, e);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * replicate an index
+     *
+     * @param args indexPath replicaPath
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: IndexReplicator indexPath replicaPath");
+            System.exit(2);
+        }
+        try (Directory source = FSDirectory.open(Path.of(args[0]))) {
+            new IndexReplicator(Path.of(args[1])).replicate(source);
+        }
+    }
+}
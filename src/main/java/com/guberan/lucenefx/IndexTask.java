@@ -4,12 +4,20 @@ import javafx.concurrent.Task;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOSupplier;
 import org.apache.tika.Tika;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,64 +25,472 @@ import javax.mail.Multipart;
 import javax.mail.internet.MimeMessage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.NumberFormat;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * Index task, index all files in docPath.<br>
- * Use Apache's Tika to convert documents to text.
+ * Use Apache's Tika to convert documents to text, except plain text files which are decoded from memory.
+ * Files with the same contents are converted only once: the first copy is indexed with its text,
+ * the other copies are indexed as lightweight documents pointing to the first one.
+ * Archives and mailboxes are indexed entry by entry: one document per entry, keyed by the container path, then the container.
+ * Files new since the previous complete run are matched against the saved searches, see SavedSearches.
  */
 public class IndexTask extends Task<List<IndexTask.IndexingError>> {
     private static final Logger log = LoggerFactory.getLogger(IndexTask.class);
 
     private static final long REFRESH_MILLIS = 250;
+    // minimum time between two checkpoint commits
+    private static final long CHECKPOINT_MILLIS = 60_000;
+    // minimum time between two near-real-time readers of a run searched while it indexes
+    private static final long NRT_MILLIS = 30_000;
+
+    // commit user data, progress of the run that wrote the commit
+    public static final String COMMIT_DOC_PATH = "docPath";
+    public static final String COMMIT_LAST_PATH = "lastPath";
+    public static final String COMMIT_LAST_MODIFIED = "lastModified";
+    public static final String COMMIT_RUN_START = "runStart";
+    public static final String COMMIT_POSITION = "position";
+    public static final String COMMIT_CREATE = "create";
+    public static final String COMMIT_COMPLETE = "complete";
+    public static final String COMMIT_SHARD = "shard";
+    public static final String COMMIT_ORDER = "order";
+    // files created or modified since this time are new for the saved searches, 0 before the first complete run
+    public static final String COMMIT_ALERTS_SINCE = "alertsSince";
+    private static final String ORDER_NEWEST = "newest";
+    private static final String ORDER_WALK = "walk";
 
     private final Directory dir;
     private final Path docPath;
     private final Path indexPath;
+    private final IndexProfile profile;
 
-    private final IndexWriter writer;
-    private final Tika tika;
+    private IndexWriter writer;
+    private Tika tika;
 
     private int dirCount;
     private int fCount;
     private int fProcessed;
     private final ArrayList<IndexingError> errorList = new ArrayList<>();
+    // files indexed with their text during this run, by content hash
+    private final Map<String, Canonical> canonicals = new HashMap<>();
+    private int duplicates;
+    private int plainTexts;
     private long millis;
     private boolean create;
 
+    // checkpoint of an interrupted run, null if indexing starts from the beginning
+    private Checkpoint checkpoint;
+    // walk position to resume from, and last file indexed
+    private long resumePosition;
+    private String lastPath;
+    private long lastModified;
+    // last file indexed by the interrupted run, when it is resumed newest first
+    private NewestFirstSort.Entry resumeKey;
+    private long lastCommit;
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final WriterMemoryTuner memory = new WriterMemoryTuner(1);
+    private DocFeatures features = new DocFeatures(Map.of());
+    // term vectors of the contents, for "more like this" without converting the document again
+    private boolean termVectors;
+    private FieldType contentsType;
+    private IndexThrottle throttle = new IndexThrottle(false, IndexThrottle.DEFAULT_READ_MB_PER_SEC);
+    // shard indexed by this task, when run by a worker process of a sharded build
+    private int shard;
+    private int shards = 1;
+    // worker processes of a new index, see ShardIndexer
+    private int workers = 1;
+    // files read while the previous ones are converted, see ReadAhead
+    private long readAheadBytes = (long) ReadAhead.DEFAULT_BUDGET_MB << 20;
+    private ReadAhead readAhead;
+    // plain text files not read ahead, reused from one file to the next, see PlainText
+    private ByteBuffer plainTextBuffer;
+    // copy of the complete index for read-only clients, null if not replicated
+    private IndexReplicator replicator;
+    private SnapshotDeletionPolicy snapshots;
+    // files and folders indexed, and files converted
+    private IndexFilter filter = IndexFilter.NONE;
+    // files of the read-ahead queue not converted, with their MIME type
+    private final Map<Path, String> withoutContents = new HashMap<>();
+    private int notConverted;
+    // files indexed newest first rather than in the order of the walk
+    private boolean newestFirst;
+    private NewestFirstSort newest;
+    // receives the documents indexed so far, null if the run is not searched while it indexes
+    private Consumer<DirectoryReader> nrtListener;
+    private DirectoryReader nrtReader;
+    private long lastRefresh;
+    // saved searches matched by the new files, null if there are none or this is the first run
+    private List<String> savedSearchTexts = List.of();
+    private SavedSearches savedSearches;
+    private long alertsSince;
+    private long runStart;
+    // set by call(), or by awaitClose() if the task was cancelled before it started
+    private final AtomicBoolean started = new AtomicBoolean();
+
     /**
      * IndexTask
      *
      * @param docPath   path to document directory
      * @param indexPath path to index directory
      * @param indexDir  directory containing the index files
+     * @param profile   codec and fields of the index
      */
-    public IndexTask(Path docPath, Path indexPath, Directory indexDir) throws IOException {
+    public IndexTask(Path docPath, Path indexPath, Directory indexDir, IndexProfile profile) {
         this.docPath = docPath;
         this.indexPath = indexPath;
         this.dir = indexDir;
+        this.profile = profile;
+
+        // time at last updateProgress() (GUI update)
+        millis = 0;
+    }
+
+    /**
+     * @param dir     index directory
+     * @param docPath document directory
+     * @return true if the latest commit of dir is a checkpoint of an interrupted run on docPath
+     */
+    public static boolean hasCheckpoint(Directory dir, Path docPath) throws IOException {
+        return Checkpoint.read(dir, docPath) != null;
+    }
+
+    /**
+     * @param dir     index directory
+     * @param docPath document directory
+     * @return true if dir contains an index of docPath, false if it has none or indexes another directory
+     */
+    public static boolean isIndexOf(Directory dir, Path docPath) throws IOException {
+        return DirectoryReader.indexExists(dir)
+                && docPath.toString().equals(SegmentInfos.readLatestCommit(dir).getUserData().get(COMMIT_DOC_PATH));
+    }
+
+    /**
+     * @return time of the start of the last complete run, 0 if the index has none
+     */
+    private static long readAlertsSince(Directory dir) throws IOException {
+        if (!DirectoryReader.indexExists(dir))
+            return 0;
+        String since = SegmentInfos.readLatestCommit(dir).getUserData().get(COMMIT_ALERTS_SINCE);
+        return (since == null) ? 0 : Long.parseLong(since);
+    }
+
+    /**
+     * @return analyzer of the contents field
+     */
+    public static Analyzer contentsAnalyzer() {
+        return new StandardAnalyzer();
+    }
 
-        Analyzer analyzer = new StandardAnalyzer();
+    /**
+     * open the index writer and Tika, in the background thread rather than on the FX thread
+     */
+    private void open() throws IOException {
+        Analyzer analyzer = FileNameFields.wrap(contentsAnalyzer(), Startup.analyzer());
         IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        iwc.setCodec(profile.codec());
+        contentsType = SimilarDocs.contentsType(profile.contentsType(), termVectors);
+        iwc.setMergeScheduler(throttle.mergeScheduler());
+        // the last commit is kept while it is replicated
+        snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+        iwc.setIndexDeletionPolicy(snapshots);
 
-        create = !Files.exists(indexPath);
+        if (checkpoint != null) {
+            // documents of the interrupted run are kept, continue in the same mode
+            create = checkpoint.create();
+            iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+        } else {
+            // the index may be in memory, check the directory rather than the index path
+            create = isRebuild();
 
-        // Add new documents to an existing index
-        iwc.setOpenMode(create ? OpenMode.CREATE : OpenMode.CREATE_OR_APPEND);
-        iwc.setRAMBufferSizeMB(256.0);
+            // Add new documents to an existing index
+            iwc.setOpenMode(create ? OpenMode.CREATE : OpenMode.CREATE_OR_APPEND);
+        }
+        // RAM buffer sized from the heap, single indexing thread
+        memory.configure(iwc);
 
         writer = new IndexWriter(dir, iwc);
 
-        // using tika facade class
-        tika = new Tika();
+        // using tika facade class, shared and possibly already initialized at startup
+        tika = Startup.tika();
 
-        // time at last updateProgress() (GUI update)
-        millis = 0;
+        if (!savedSearchTexts.isEmpty() && alertsSince > 0)
+            savedSearches = new SavedSearches(savedSearchTexts, profile.positions());
+    }
+
+    /**
+     * @return true if the index is missing, or must be rebuilt because it indexes another directory,
+     * or was written with another profile, or with(out) term vectors
+     */
+    private boolean isRebuild() throws IOException {
+        return !isIndexOf(dir, docPath) || IndexProfile.read(dir) != profile
+                || SimilarDocs.hasTermVectors(dir) != termVectors;
+    }
+
+    /**
+     * commit the documents indexed so far, with the progress of the run as commit user data
+     *
+     * @param complete true if all files have been indexed
+     */
+    private void checkpoint(boolean complete) throws IOException {
+        // a run resumed newest first keeps the last file of the interrupted run until it passes it,
+        // and the start of that run: the files modified since are indexed again
+        NewestFirstSort.Entry last = new NewestFirstSort.Entry(lastModified, (lastPath == null) ? "" : lastPath);
+        if (resumeKey != null && NewestFirstSort.ORDER.compare(last, resumeKey) < 0)
+            last = resumeKey;
+        long start = (resumeKey != null) ? checkpoint.runStart() : runStart;
+        writer.setLiveCommitData(Map.ofEntries(
+                Map.entry(COMMIT_DOC_PATH, docPath.toString()),
+                Map.entry(COMMIT_LAST_PATH, last.path()),
+                Map.entry(COMMIT_LAST_MODIFIED, Long.toString(last.modified())),
+                Map.entry(COMMIT_POSITION, Long.toString(fProcessed)),
+                Map.entry(COMMIT_RUN_START, Long.toString(start)),
+                Map.entry(COMMIT_CREATE, Boolean.toString(create)),
+                Map.entry(COMMIT_COMPLETE, Boolean.toString(complete)),
+                Map.entry(IndexProfile.COMMIT_PROFILE, profile.name()),
+                Map.entry(SimilarDocs.COMMIT_TERM_VECTORS, Boolean.toString(termVectors)),
+                Map.entry(COMMIT_SHARD, (shards > 1) ? shard + "/" + shards : ""),
+                Map.entry(COMMIT_ORDER, newestFirst ? ORDER_NEWEST : ORDER_WALK),
+                Map.entry(COMMIT_ALERTS_SINCE, Long.toString(complete ? runStart : alertsSince))).entrySet());
+        writer.commit();
+        lastCommit = System.currentTimeMillis();
+    }
+
+    /**
+     * commit and close the writer, whatever the outcome of the run
+     */
+    private void close(boolean complete) throws IOException {
+        try {
+            if (writer != null && writer.isOpen()) {
+                checkpoint(complete);
+                if (complete && replicator != null)
+                    replicate();
+            }
+        } finally {
+            throttle.close();
+            if (newest != null)
+                newest.close();
+            if (nrtReader != null) {
+                nrtReader.decRef();
+                nrtReader = null;
+            }
+            if (writer != null)
+                writer.close();
+            closed.countDown();
+        }
+    }
+
+    /**
+     * replicate the complete index, a failure leaves the index and the previous replica usable
+     */
+    private void replicate() {
+        updateMessage(LuceneFx.tr("IndexTask.replicate"));
+        try {
+            replicator.replicate(dir, snapshots);
+        } catch (IOException e) {
+            log.error("Could not replicate the index of '{}'", docPath, e);
+        }
+    }
+
+    /**
+     * wait until the writer is closed, after the task succeeded, failed or was cancelled
+     */
+    public void awaitClose() throws InterruptedException {
+        if (started.compareAndSet(false, true))
+            return; // call() will not run anymore
+        closed.await();
+    }
+
+    /**
+     * open a near-real-time reader of the documents indexed so far, without commit, for the listener
+     */
+    private void refreshReader() throws IOException {
+        lastRefresh = System.currentTimeMillis();
+        DirectoryReader changed = (nrtReader == null) ? DirectoryReader.open(writer)
+                : DirectoryReader.openIfChanged(nrtReader, writer);
+        if (changed == null)
+            return;
+        if (nrtReader != null)
+            nrtReader.decRef();
+        nrtReader = changed;
+        // a reference for the listener, released when it closes the reader
+        changed.incRef();
+        log.debug("near-real-time reader opened after {} files, {} documents", fProcessed, changed.numDocs());
+        nrtListener.accept(changed);
+    }
+
+    /**
+     * @param filter files and folders indexed, and files converted
+     */
+    public void setFilter(IndexFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param savedSearches saved searches, as typed in the search field, matched against the files created or
+     *                      modified since the previous complete run. The first run of an index has no alerts.
+     */
+    public void setSavedSearches(List<String> savedSearches) {
+        this.savedSearchTexts = savedSearches;
+    }
+
+    /**
+     * @return saved searches matched by the new files of the run, at most SavedSearches.MAX_ALERTS
+     */
+    public List<SavedSearches.Alert> getAlerts() {
+        return (savedSearches == null) ? List.of() : savedSearches.getAlerts();
+    }
+
+    /**
+     * @return number of saved searches matched by the new files of the run
+     */
+    public long getAlertCount() {
+        return (savedSearches == null) ? 0 : savedSearches.getAlertCount();
+    }
+
+    /**
+     * @param newestFirst true to index the most recently modified files first, false in the order of the walk.
+     *                    A new index built by worker processes is indexed in the order of the walk.
+     */
+    public void setNewestFirst(boolean newestFirst) {
+        this.newestFirst = newestFirst;
+    }
+
+    /**
+     * @param nrtListener receives a reader of the documents indexed so far every 30 seconds, in the indexing
+     *                    thread, and closes it when done; null to search the index once complete
+     */
+    public void setNrtListener(Consumer<DirectoryReader> nrtListener) {
+        this.nrtListener = nrtListener;
+    }
+
+    /**
+     * @param readAheadBytes bytes of the files read ahead at most, 0 to read each file when it is converted
+     */
+    public void setReadAhead(long readAheadBytes) {
+        this.readAheadBytes = readAheadBytes;
+    }
+
+    /**
+     * @param replicator replicator of the complete index, null to not replicate it
+     */
+    public void setReplicator(IndexReplicator replicator) {
+        this.replicator = replicator;
+    }
+
+    /**
+     * @param features relevance features added to the documents
+     */
+    public void setFeatures(DocFeatures features) {
+        this.features = features;
+    }
+
+    /**
+     * @param termVectors true to store the term vectors of the contents
+     */
+    public void setTermVectors(boolean termVectors) {
+        this.termVectors = termVectors;
+    }
+
+    /**
+     * @param throttle limits of a background run
+     */
+    public void setThrottle(IndexThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * index only the files of a shard
+     *
+     * @param shard  shard of this task
+     * @param shards number of shards
+     */
+    public void setShard(int shard, int shards) {
+        this.shard = shard;
+        this.shards = shards;
+    }
+
+    /**
+     * @param workers number of worker processes building a new index, 1 to index in this process
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public int getProcessed() {
+        return fProcessed;
+    }
+
+    public int getFileCount() {
+        return fCount;
+    }
+
+    /**
+     * @return true if dir is the index, or its shards, inside the document directory
+     */
+    private boolean isExcluded(Path dir) {
+        return indexPath != null && !indexPath.toString().isEmpty()
+                && (indexPath.equals(dir) || ShardIndexer.shardRoot(indexPath).equals(dir));
+    }
+
+    /**
+     * @return true if folder dir is not walked: the index, another shard, or excluded by the filter
+     */
+    private boolean isSkipped(Path dir) {
+        return isExcluded(dir) || filter.excludesFolder(docPath, dir);
+    }
+
+    /**
+     * @return false if file belongs to another shard
+     */
+    private boolean inShard(Path file) {
+        return shards <= 1 || ShardIndexer.shardOf(docPath, file, shards) == shard;
+    }
+
+    /**
+     * @return java options of the shard workers, with the settings of this task; the workers share
+     * the read-ahead budget, and run one at a time at the read rate while throttled
+     */
+    private List<String> workerOptions() {
+        List<String> options = new ArrayList<>(filter.toJavaOptions());
+        options.addAll(features.toJavaOptions());
+        options.addAll(throttle.toJavaOptions());
+        options.add("-D" + ShardIndexer.READ_AHEAD_PROPERTY + "=" + readAheadBytes / workers);
+        String ramBuffer = System.getProperty(WriterMemoryTuner.RAM_BUFFER_PROPERTY);
+        if (ramBuffer != null)
+            options.add("-D" + WriterMemoryTuner.RAM_BUFFER_PROPERTY + "=" + ramBuffer);
+        return options;
+    }
+
+    /**
+     * @return memory settings of the writer
+     */
+    public WriterMemoryTuner getMemoryTuner() {
+        return memory;
+    }
+
+    /**
+     * cancellation only stops the file walk: interrupting the thread would close the
+     * index files opened by the writer (NIO channels) and abort it.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return super.cancel(false);
     }
 
     /**
@@ -98,44 +514,201 @@ public class IndexTask extends Task<List<IndexTask.IndexingError>> {
      */
     @Override
     protected List<IndexingError> call() throws Exception {
+        if (!started.compareAndSet(false, true))
+            return errorList;
         long start = System.currentTimeMillis();
+        runStart = start;
+
+        boolean complete = false;
+        ShardIndexer shardIndexer = null;
+        try {
+            alertsSince = readAlertsSince(dir);
+            // resume an interrupted run if the file walk still reaches the same file at the same position
+            checkpoint = Checkpoint.read(dir, docPath);
+            if (checkpoint != null && (IndexProfile.read(dir) != profile || SimilarDocs.hasTermVectors(dir) != termVectors))
+                checkpoint = null;
+
+            if (workers > 1 && checkpoint == null && isRebuild()) {
+                // new index: shards indexed by worker processes, then combined
+                shardIndexer = new ShardIndexer(docPath, indexPath, profile, termVectors, workerOptions(), throttle,
+                        workers);
+                if (!indexShards(shardIndexer))
+                    return errorList;
+            } else if (!indexFiles()) {
+                return errorList;
+            }
+
+            updateMessage(LuceneFx.tr("IndexTask.consolidate"));
+
+            Duration d = Duration.ofMillis(System.currentTimeMillis() - start);
+            log.info("reindex time {} for '{}' ({} profile, {} workers), {} duplicates not converted", d, docPath,
+                    profile.name().toLowerCase(Locale.ROOT), workers, duplicates);
+            log.info("indexing memory: {}", memory);
+            log.info("indexing throttle: {}", throttle);
+            if (savedSearches != null)
+                log.info("saved searches: {}", savedSearches);
+
+            // NOTE: if you want to maximize search performance,
+            // you can optionally call forceMerge here. This can be
+            // a terribly costly operation, so generally it's only
+            // worth it when your index is relatively static
+            // (ie you're done adding documents to it)
+            writer.forceMerge(1);
+            complete = true;
+        } finally {
+            // commit a checkpoint (or the complete index) and close writer
+            close(complete);
+            if (complete && shardIndexer != null)
+                shardIndexer.deleteShards();
+        }
+
+        // return a list of documents that could not be indexed
+        return errorList;
+    }
 
+    /**
+     * index the files in this process, resuming from the checkpoint if any
+     *
+     * @return false if cancelled
+     */
+    private boolean indexFiles() throws IOException {
         // index all files
         updateMessage(LuceneFx.tr("IndexTask.examine"));
-        Files.walkFileTree(docPath, new CountVisitor());
+        newest = newestFirst ? new NewestFirstSort(NewestFirstSort.DEFAULT_RUN_SIZE) : null;
+        CountVisitor counter = new CountVisitor();
+        Files.walkFileTree(docPath, counter);
+        boolean resumeValid = (checkpoint != null && checkpoint.newestFirst() == newestFirst)
+                && (newestFirst ? isNewestResumeValid() : counter.resumeValid);
+        if (checkpoint != null && resumeValid && newestFirst) {
+            // files modified since the interrupted run started are indexed again, replacing their documents
+            resumeKey = new NewestFirstSort.Entry(checkpoint.lastModified(), checkpoint.lastPath());
+            lastPath = checkpoint.lastPath();
+            lastModified = checkpoint.lastModified();
+            checkpoint = new Checkpoint(lastPath, checkpoint.position(), false, true, lastModified,
+                    checkpoint.runStart());
+            log.info("resuming indexing of '{}' after {} ({})", docPath, lastPath, Instant.ofEpochMilli(lastModified));
+        } else if (checkpoint != null && resumeValid) {
+            resumePosition = checkpoint.position();
+            lastPath = checkpoint.lastPath();
+            log.info("resuming indexing of '{}' after {} files ({})", docPath, resumePosition, lastPath);
+        } else if (checkpoint != null) {
+            // files changed, documents already indexed are replaced rather than duplicated
+            log.info("checkpoint of '{}' no longer matches the files, reindexing all files", docPath);
+            checkpoint = new Checkpoint(null, 0, false, newestFirst, 0, 0);
+        }
+
+        open();
+        lastCommit = System.currentTimeMillis();
+        lastRefresh = lastCommit;
 
         NumberFormat fmt = NumberFormat.getIntegerInstance();
+        updateProgress(fProcessed, fCount);
         updateMessage(LuceneFx.tr("IndexTask.process", "", 0, fmt.format(fCount), fmt.format(dirCount)));
-        Files.walkFileTree(docPath, new IndexFileVisitor());
+        readAhead = new ReadAhead(readAheadBytes);
+        try {
+            IndexFileVisitor visitor = new IndexFileVisitor();
+            if (newestFirst)
+                indexNewestFirst(visitor);
+            else
+                Files.walkFileTree(docPath, visitor);
+            visitor.indexQueued(true);
+            log.info("read-ahead: {}", readAhead);
+            log.info("filter: {}, {} files indexed without contents", filter, notConverted);
+            log.info("{} plain text files indexed without Tika", plainTexts);
+        } finally {
+            readAhead.close();
+        }
 
-        updateMessage(LuceneFx.tr("IndexTask.consolidate"));
+        if (isCancelled()) {
+            log.info("indexing of '{}' cancelled after {} files", docPath, fProcessed);
+            return false;
+        }
+        return true;
+    }
 
-        Duration d = Duration.ofMillis(System.currentTimeMillis() - start);
-        log.info("reindex time {} for '{}'", d, docPath);
+    /**
+     * @return true if the interrupted run of the newest first order can be resumed after its last file:
+     * files are added, deleted and modified meanwhile, so the run is resumed by the key of that file
+     * in the order, (modification time, path), rather than by its position
+     */
+    private boolean isNewestResumeValid() {
+        return checkpoint.position() > 0 && checkpoint.lastModified() > 0 && checkpoint.runStart() > 0
+                && checkpoint.lastPath() != null && !checkpoint.lastPath().isEmpty();
+    }
 
-        // NOTE: if you want to maximize search performance,
-        // you can optionally call forceMerge here. This can be
-        // a terribly costly operation, so generally it's only
-        // worth it when your index is relatively static
-        // (ie you're done adding documents to it)
-        writer.forceMerge(1);
+    /**
+     * index the files counted by the walk, newest first
+     */
+    private void indexNewestFirst(IndexFileVisitor visitor) throws IOException {
+        Iterator<NewestFirstSort.Entry> entries = newest.entries();
+        while (entries.hasNext() && !isCancelled()) {
+            NewestFirstSort.Entry entry = entries.next();
+            Path file = newest.path(entry);
+            // indexed by the interrupted run, unless modified since it started
+            if (resumeKey != null && NewestFirstSort.ORDER.compare(entry, resumeKey) <= 0
+                    && entry.modified() < checkpoint.runStart()) {
+                incProcessed();
+                continue;
+            }
+            BasicFileAttributes attrs;
+            try {
+                // size and date of now, the file may have changed since the walk
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // deleted since the walk: counted in order, after the files read ahead
+                log.debug("{} no longer exists", file);
+                visitor.indexQueued(true);
+                lastPath = file.toString();
+                lastModified = entry.modified();
+                incProcessed();
+                continue;
+            }
+            visitor.visitFile(file, attrs);
+        }
+    }
 
-        // closer writer
-        writer.close();
+    /**
+     * index the shards in worker processes, and add them to the new index
+     *
+     * @return false if cancelled or if a worker failed
+     */
+    private boolean indexShards(ShardIndexer shardIndexer) throws IOException, InterruptedException {
+        NumberFormat fmt = NumberFormat.getIntegerInstance();
+        updateMessage(LuceneFx.tr("IndexTask.examine"));
+        List<Directory> shardDirs = shardIndexer.run(this::isCancelled, (processed, files, running) -> {
+            updateProgress(processed, Math.max(files, 1));
+            updateMessage(LuceneFx.tr("IndexTask.shards", "", fmt.format(processed), fmt.format(files), running));
+        });
+        errorList.addAll(shardIndexer.getErrors());
+        if (shardDirs == null) {
+            log.info("sharded indexing of '{}' cancelled or failed, complete shards are kept", docPath);
+            return false;
+        }
 
-        // return a list of documents that could not be indexed
-        return errorList;
+        open();
+        updateMessage(LuceneFx.tr("IndexTask.consolidate"));
+        try {
+            writer.addIndexes(shardDirs.toArray(new Directory[0]));
+        } finally {
+            for (Directory shardDir : shardDirs) {
+                shardDir.close();
+            }
+        }
+        fProcessed = (int) shardIndexer.getProcessed();
+        fCount = fProcessed;
+        return true;
     }
 
     /**
      * count attachments in email
      *
-     * @param file email
+     * @param file     email
+     * @param contents contents of the email if it was read ahead, null to read it from disk
      * @return count
      */
-    private int countAttachments(Path file) {
+    private int countAttachments(Path file, ByteBuffer contents) {
         int count = 0;
-        try (InputStream input = Files.newInputStream(file)) {
+        try (InputStream input = (contents != null) ? ReadAhead.stream(contents) : Files.newInputStream(file)) {
             MimeMessage message = new MimeMessage(null, input);
             Object content = message.getContent();
             if (content instanceof Multipart multipart) {
@@ -150,10 +723,25 @@ public class IndexTask extends Task<List<IndexTask.IndexingError>> {
     /**
      * indexFile
      *
-     * @param file index file
+     * @param file     index file
+     * @param contents contents of the file if it was read ahead, null to read it from disk
      */
-    protected void indexFile(Path file, BasicFileAttributes attrs) {
+    protected void indexFile(Path file, BasicFileAttributes attrs, ByteBuffer contents) {
         try {
+            // plain text is read once, then hashed and decoded from the buffer
+            if (contents == null && PlainText.hasTextExtension(file) && attrs.size() <= PlainText.MAX_READ) {
+                plainTextBuffer = PlainText.read(file, attrs.size(), plainTextBuffer);
+                contents = plainTextBuffer;
+            }
+
+            // hash contents before extraction, a copy of an already converted file is not parsed again
+            String hash = (contents != null) ? XxHash64.hash(contents) : contentHash(file);
+            Canonical canonical = (hash == null) ? null : canonicals.get(hash);
+            if (canonical != null && canonical.contents() == null && isAlerted(attrs)) {
+                // new copy of a file that was not matched: converted to be matched, then the canonical of its copies
+                canonical = null;
+            }
+
             // make a new, empty document
             Document doc = new Document();
 
@@ -163,6 +751,7 @@ public class IndexTask extends Task<List<IndexTask.IndexingError>> {
             // or positional information:
             Field pathField = new StringField("path", file.toString(), Field.Store.YES);
             doc.add(pathField);
+            FileNameFields.add(doc, file.toString());
 
             // Add the last modified date of the file a field named "modified".
             // Use a LongPoint that is indexed (i.e. efficiently filterable with
@@ -172,10 +761,50 @@ public class IndexTask extends Task<List<IndexTask.IndexingError>> {
             // For example the long value 2011021714 would mean
             // February 17, 2011, 2-3 PM.
             long lastModified = attrs.lastModifiedTime().toMillis();
-            doc.add(new SortedNumericDocValuesField("modified", lastModified));
-            // doc.add(new NumericDocValuesField("modified", lastModified));
-            doc.add(new LongPoint("modified", lastModified));
-            doc.add(new StoredField("modified", lastModified));
+            addModified(doc, lastModified);
+
+            if (hash != null) {
+                doc.add(new StringField(LuceneFx.KEY_HASH, hash, Field.Store.YES));
+                doc.add(new SortedDocValuesField(LuceneFx.KEY_HASH, new BytesRef(hash)));
+            }
+
+            if (canonical != null) {
+                // duplicate: no contents, the text is searched through the canonical document
+                duplicates++;
+                doc.add(new StringField(LuceneFx.KEY_DUPLICATE_OF, canonical.path().toString(), Field.Store.YES));
+                addAttachments(doc, canonical.attachments());
+                addDocument(file, build(doc, file, canonical.mimeType(), lastModified));
+                // a new copy is matched with the contents terms of the canonical document, not converted again
+                alertCopy(file, attrs, doc, canonical.contents());
+                return;
+            }
+
+            Reader plainText = (contents != null && PlainText.hasTextExtension(file)) ? PlainText.reader(contents) : null;
+            if (plainText != null) {
+                // streamed into the analyzer, the type of a text file is known from its name
+                String mimeType = tika.detect(file.getFileName().toString());
+                memory.observe(2L * contents.remaining());
+                doc.add(new Field("contents", plainText, contentsType));
+                addAttachments(doc, 0);
+                addDocument(file, build(doc, file, mimeType, lastModified));
+                ByteBuffer text = contents;
+                SavedSearches.ContentsTerms matched = alert(file.toString(), attrs, doc, () -> PlainText.reader(text));
+                plainTexts++;
+                if (hash != null)
+                    canonicals.put(hash, new Canonical(file, mimeType, 0, matched));
+                return;
+            }
+
+            String mimeType = (contents != null) ? tika.detect(ReadAhead.stream(contents), metadata(file, contents))
+                    : tika.detect(file);
+            if (ContainerExtractor.isContainer(mimeType)) {
+                indexContainer(file, attrs, doc, mimeType, lastModified);
+                // the entries are matched as they are indexed, the container by its name
+                alert(file.toString(), attrs, doc, null);
+                if (hash != null)
+                    canonicals.put(hash, new Canonical(file, mimeType, 0, null));
+                return;
+            }
 
             // Add the contents of the file to a field named "contents". Specify a Reader,
             // so that the text of the file is tokenized and indexed, but not stored.
@@ -184,26 +813,24 @@ public class IndexTask extends Task<List<IndexTask.IndexingError>> {
             // doc.add(new TextField("contents", new BufferedReader(new
             // InputStreamReader(stream, StandardCharsets.UTF_8))))
             // doc.add(new TextField("contents", "test", Store.NO)
-            doc.add(new TextField("contents", tika.parseToString(file), Field.Store.NO));
+            String text = (contents != null) ? tika.parseToString(ReadAhead.stream(contents), metadata(file, contents))
+                    : tika.parseToString(file);
+            memory.observe(2L * text.length());
+            doc.add(new Field("contents", text, contentsType));
 
             // if e-mail, count attachments
             int attachments = 0;
             if (file.toString().toLowerCase().endsWith(".eml")) {
-                attachments = countAttachments(file);
+                attachments = countAttachments(file, contents);
             }
-            doc.add(new SortedNumericDocValuesField("attachments", attachments));
-            doc.add(new IntPoint("attachments", attachments));
-            doc.add(new StoredField("attachments", attachments));
+            addAttachments(doc, attachments);
 
-            if (create) { // writer.getConfig().getOpenMode() == OpenMode.CREATE
-                // New index, so we just add the document (no old document can be there):
-                writer.addDocument(doc);
-            } else {
-                // Existing index (an old copy of this document may have been indexed) so
-                // we use updateDocument instead to replace the old one matching the exact
-                // path, if present:
-                writer.updateDocument(new Term("path", file.toString()), doc);
-            }
+            // facets: MIME type, modification year/month and top-level folder
+            addDocument(file, build(doc, file, mimeType, lastModified));
+            SavedSearches.ContentsTerms matched = alert(file.toString(), attrs, doc, () -> new StringReader(text));
+
+            if (hash != null)
+                canonicals.put(hash, new Canonical(file, mimeType, attachments, matched));
 
         } catch (Exception e) {
 
@@ -213,6 +840,267 @@ public class IndexTask extends Task<List<IndexTask.IndexingError>> {
         }
     }
 
+    /**
+     * match a file or an entry of a container against the saved searches, if it was created or modified since
+     * the previous complete run
+     *
+     * @param path     path of the file or of the entry
+     * @param attrs    attributes of the file, or of the container of the entry
+     * @param doc      indexed document
+     * @param contents new reader of the text of the document, null if it has no contents
+     * @return terms of the contents read by the saved searches, null if the document was not matched
+     */
+    private SavedSearches.ContentsTerms alert(String path, BasicFileAttributes attrs, Document doc,
+                                              IOSupplier<Reader> contents) {
+        if (!isAlerted(attrs))
+            return null;
+        try {
+            return savedSearches.match(path, doc, contents, contentsType, writer.getAnalyzer());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not match " + path + " against the saved searches", e);
+            return null;
+        }
+    }
+
+    /**
+     * match a new copy of a file against the saved searches
+     *
+     * @param contents terms of the contents of the canonical document read by the saved searches
+     */
+    private void alertCopy(Path file, BasicFileAttributes attrs, Document doc, SavedSearches.ContentsTerms contents) {
+        if (!isAlerted(attrs))
+            return;
+        try {
+            savedSearches.match(file.toString(), doc, contents, writer.getAnalyzer());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not match " + file + " against the saved searches", e);
+        }
+    }
+
+    /**
+     * @return true if a file created or modified since the previous complete run is matched
+     */
+    private boolean isAlerted(BasicFileAttributes attrs) {
+        return savedSearches != null && Math.max(attrs.lastModifiedTime().toMillis(),
+                attrs.creationTime().toMillis()) >= alertsSince;
+    }
+
+    /**
+     * index the name, date and type of a file that is not converted
+     */
+    private void indexWithoutContents(Path file, BasicFileAttributes attrs, String mimeType) {
+        try {
+            Document doc = new Document();
+            doc.add(new StringField("path", file.toString(), Field.Store.YES));
+            FileNameFields.add(doc, file.toString());
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            addModified(doc, lastModified);
+            addAttachments(doc, 0);
+            addDocument(file, build(doc, file, mimeType, lastModified));
+            alert(file.toString(), attrs, doc, null);
+            notConverted++;
+        } catch (Exception e) {
+            log.warn("An error occurred while indexing " + file, e);
+            errorList.add(new IndexingError(file, e));
+        }
+    }
+
+    /**
+     * index an archive or a mailbox, each entry as a document of its own with path "container!/entry"
+     * and the container path in the "parent" field.<br>
+     * The entries are indexed one by one while the container is extracted, then the container itself:
+     * the writer flushes as for separate files, whatever the size of the container.
+     *
+     * @param file         container file
+     * @param attrs        attributes of the container file
+     * @param doc          container document, with path and modification date
+     * @param mimeType     MIME type of the container
+     * @param lastModified modification date of the container, also used for the entries
+     */
+    private void indexContainer(Path file, BasicFileAttributes attrs, Document doc, String mimeType,
+                                long lastModified) throws Exception {
+        // replace the entries of its previous version
+        if (!create)
+            deleteEntries(file);
+        try (ContainerExtractor extractor = new ContainerExtractor(tika.getParser(), file, entry -> {
+            Document child = entryDocument(file, entry, lastModified);
+            writer.addDocument(child);
+            memory.afterDocument(writer);
+            // e.g. a new e-mail of a mailbox, matched with the spooled text of the entry
+            alert(entry.path(), attrs, child, entry.contents());
+        })) {
+            doc.add(new Field("contents", extractor.extract(), contentsType));
+            addAttachments(doc, 0);
+            Document container = build(doc, file, mimeType, lastModified);
+            if (create) {
+                writer.addDocument(container);
+            } else {
+                // not addDocument: the entries just added are kept
+                deleteCopies(file);
+                writer.updateDocument(new Term("path", file.toString()), container);
+            }
+        } catch (Exception e) {
+            // the entries indexed before the error are removed with the container
+            deleteEntries(file);
+            throw e;
+        }
+    }
+
+    /**
+     * @return document of an entry of a container
+     */
+    private Document entryDocument(Path file, ContainerExtractor.Entry entry, long lastModified) throws IOException {
+        Document child = new Document();
+        child.add(new StringField("path", entry.path(), Field.Store.YES));
+        FileNameFields.add(child, entry.path());
+        child.add(new StringField(LuceneFx.KEY_PARENT, file.toString(), Field.Store.YES));
+        child.add(new SortedDocValuesField(LuceneFx.KEY_PARENT, new BytesRef(file.toString())));
+        addModified(child, lastModified);
+        child.add(new Field("contents", entry.contents().get(), contentsType));
+        addAttachments(child, 0);
+        return build(child, file, entry.mimeType(), lastModified);
+    }
+
+    /**
+     * delete the documents of the entries of a file, indexed while it was a container
+     */
+    private void deleteEntries(Path file) throws IOException {
+        writer.deleteDocuments(new Term(LuceneFx.KEY_PARENT, file.toString()));
+    }
+
+    /**
+     * add the last modified date to a document, as doc values, point and stored field
+     */
+    private void addModified(Document doc, long lastModified) {
+        doc.add(new SortedNumericDocValuesField("modified", lastModified));
+        // doc.add(new NumericDocValuesField("modified", lastModified));
+        doc.add(new LongPoint("modified", lastModified));
+        if (profile.storeNumbers())
+            doc.add(new StoredField("modified", lastModified));
+        features.addRecency(doc, lastModified);
+    }
+
+    /**
+     * add the number of attachments to a document
+     */
+    private void addAttachments(Document doc, int attachments) {
+        doc.add(new SortedNumericDocValuesField("attachments", attachments));
+        doc.add(new IntPoint("attachments", attachments));
+        if (profile.storeNumbers())
+            doc.add(new StoredField("attachments", attachments));
+        features.addAttachments(doc, attachments);
+    }
+
+    /**
+     * add folder feature and facet fields to a document
+     *
+     * @param doc          document being indexed
+     * @param file         indexed file, or container of the document
+     * @param mimeType     detected MIME type
+     * @param lastModified modification time
+     * @return document with facet fields translated into indexable fields
+     */
+    private Document build(Document doc, Path file, String mimeType, long lastModified) throws IOException {
+        features.addFolder(doc, docPath, file);
+        return DocFacets.build(doc, docPath, file, mimeType, lastModified);
+    }
+
+    /**
+     * add or replace a document in the index
+     *
+     * @param file indexed file
+     * @param doc  document
+     */
+    private void addDocument(Path file, Document doc) throws IOException {
+        if (create) { // writer.getConfig().getOpenMode() == OpenMode.CREATE
+            // New index, so we just add the document (no old document can be there):
+            writer.addDocument(doc);
+        } else {
+            // Existing index (an old copy of this document may have been indexed) so
+            // we use updateDocument instead to replace the old one matching the exact
+            // path, if present:
+            deleteCopies(file);
+            // the entries of a file that was a container
+            deleteEntries(file);
+            writer.updateDocument(new Term("path", file.toString()), doc);
+        }
+    }
+
+    /**
+     * delete the copies of a file indexed by previous runs, before its document is replaced.<br>
+     * A copy points to the first file of the same hash in its run: the copies of this run are indexed
+     * after the file, those of previous runs may have another hash now; they are indexed again later in
+     * this run, against the hashes of this run, if they still exist.
+     *
+     * @param file file whose document is replaced
+     */
+    private void deleteCopies(Path file) throws IOException {
+        writer.deleteDocuments(new Term(LuceneFx.KEY_DUPLICATE_OF, file.toString()));
+    }
+
+    /**
+     * @return metadata of a file converted from memory, as set by Tika for a file on disk
+     */
+    private static Metadata metadata(Path file, ByteBuffer contents) {
+        Metadata metadata = new Metadata();
+        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, file.getFileName().toString());
+        metadata.set(Metadata.CONTENT_LENGTH, Integer.toString(contents.limit()));
+        return metadata;
+    }
+
+    /**
+     * hash file contents
+     *
+     * @param file file to hash
+     * @return content hash, or null if the file could not be read
+     */
+    private String contentHash(Path file) {
+        try {
+            return XxHash64.hashFile(file);
+        } catch (IOException e) {
+            log.debug("Could not hash " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * first file converted for a given content hash
+     *
+     * @param path        path of the file
+     * @param mimeType    detected MIME type
+     * @param attachments number of attachments
+     * @param contents    terms of the contents read by the saved searches, null if it was not matched
+     */
+    private record Canonical(Path path, String mimeType, int attachments, SavedSearches.ContentsTerms contents) {
+    }
+
+    /**
+     * progress of an interrupted run, read from the commit user data
+     *
+     * @param lastPath     last file indexed
+     * @param position     number of files visited by the walk, including lastPath
+     * @param create       true if the run was building a new index
+     * @param newestFirst  true if the files were indexed newest first
+     * @param lastModified modification time of lastPath when it was indexed
+     * @param runStart     start of the run, 0 if unknown
+     */
+    private record Checkpoint(String lastPath, long position, boolean create, boolean newestFirst, long lastModified,
+                              long runStart) {
+
+        static Checkpoint read(Directory dir, Path docPath) throws IOException {
+            if (!DirectoryReader.indexExists(dir))
+                return null;
+            Map<String, String> data = SegmentInfos.readLatestCommit(dir).getUserData();
+            if (!Boolean.FALSE.toString().equals(data.get(COMMIT_COMPLETE))
+                    || !docPath.toString().equals(data.get(COMMIT_DOC_PATH)))
+                return null;
+            return new Checkpoint(data.get(COMMIT_LAST_PATH), Long.parseLong(data.get(COMMIT_POSITION)),
+                    Boolean.parseBoolean(data.get(COMMIT_CREATE)), ORDER_NEWEST.equals(data.get(COMMIT_ORDER)),
+                    Long.parseLong(data.getOrDefault(COMMIT_LAST_MODIFIED, "0")),
+                    Long.parseLong(data.getOrDefault(COMMIT_RUN_START, "0")));
+        }
+    }
+
     /**
      * class to report errors
      */
@@ -234,28 +1122,75 @@ public class IndexTask extends Task<List<IndexTask.IndexingError>> {
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
 
             // if index directory is inside document directory, skip it
-            if (indexPath != null && indexPath.equals(dir))
+            if (isSkipped(dir))
                 return FileVisitResult.SKIP_SUBTREE;
 
             return FileVisitResult.CONTINUE;
         }
 
         @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
 
             if (isCancelled())
                 return FileVisitResult.TERMINATE;
+            if (!inShard(file) || !filter.accepts(docPath, file))
+                return FileVisitResult.CONTINUE;
+
+            // already indexed before the checkpoint
+            if (fProcessed < resumePosition) {
+                incProcessed();
+                return FileVisitResult.CONTINUE;
+            }
+
+            // large and binary files are not read
+            String mimeType = filter.withoutContents(file, attrs.size(), tika);
+            if (mimeType != null) {
+                withoutContents.put(file, mimeType);
+                readAhead.add(file, attrs, false);
+                indexQueued(false);
+                return FileVisitResult.CONTINUE;
+            }
 
-            indexFile(file, attrs);
-            incProcessed();
+            // the file is read at least once, to compute its hash
+            throttle.pauseRead(attrs.size(), IndexTask.this::isCancelled);
+            readAhead.add(file, attrs, true);
+            indexQueued(false);
             return FileVisitResult.CONTINUE;
         }
+
+        /**
+         * index the files of the read-ahead queue that are due, in the order of the walk
+         *
+         * @param all true at the end of the walk
+         */
+        void indexQueued(boolean all) throws IOException {
+            ReadAhead.Entry entry;
+            while (!isCancelled() && (entry = readAhead.next(all)) != null) {
+                String mimeType = withoutContents.remove(entry.file());
+                if (mimeType == null)
+                    indexFile(entry.file(), entry.attrs(), entry.contents());
+                else if (filter.nameOnly())
+                    indexWithoutContents(entry.file(), entry.attrs(), mimeType);
+                readAhead.done(entry);
+                lastPath = entry.file().toString();
+                lastModified = entry.attrs().lastModifiedTime().toMillis();
+                incProcessed();
+                memory.afterDocument(writer);
+
+                if (System.currentTimeMillis() - lastCommit > CHECKPOINT_MILLIS)
+                    checkpoint(false);
+                if (nrtListener != null && System.currentTimeMillis() - lastRefresh > NRT_MILLIS)
+                    refreshReader();
+            }
+        }
     }
 
     /**
      * A {@code FileVisitor} that count each file and directory visited
      */
     public class CountVisitor implements FileVisitor<Path> {
+        // true if the file at the checkpoint position is the last file indexed
+        boolean resumeValid;
 
         public CountVisitor() {
             dirCount = 0;
@@ -267,7 +1202,7 @@ public class IndexTask extends Task<List<IndexTask.IndexingError>> {
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
 
             // if index directory is inside document directory, skip it
-            if (indexPath != null && indexPath.equals(dir))
+            if (isSkipped(dir))
                 return FileVisitResult.SKIP_SUBTREE;
 
             dirCount++;
@@ -275,8 +1210,14 @@ public class IndexTask extends Task<List<IndexTask.IndexingError>> {
         }
 
         @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            if (!inShard(file) || !filter.accepts(docPath, file))
+                return FileVisitResult.CONTINUE;
             fCount++;
+            if (newest != null)
+                newest.add(file, attrs.lastModifiedTime().toMillis());
+            if (checkpoint != null && fCount == checkpoint.position())
+                resumeValid = file.toString().equals(checkpoint.lastPath());
             return FileVisitResult.CONTINUE;
         }
 
@@ -0,0 +1,322 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.store.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Background indexing: limits the disk and CPU used by an indexing run while the user works,
+ * and lets it run at full speed when the machine is idle.<br>
+ * While throttled, the files read are paced by a rate limiter, merges use the auto IO throttle
+ * of the {@link ConcurrentMergeScheduler} with a single merge thread, and the final forceMerge
+ * is limited as well.
+ * The machine is considered idle when there was no input in the LuceneFx windows for a minute
+ * and other processes use little CPU, Java has no portable access to the desktop idle time.<br>
+ * The shard workers of a sharded build are throttled by the parent process, which sees the GUI
+ * and does not count their CPU: it writes their state on their standard input, and lets only
+ * one of them run while the machine is in use.
+ */
+public class IndexThrottle implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(IndexThrottle.class);
+
+    public static final double DEFAULT_READ_MB_PER_SEC = 20;
+
+    // forceMerge rate while throttled, other merges are paced by the auto IO throttle
+    private static final double FORCE_MERGE_MB_PER_SEC = 10;
+    private static final long IDLE_MILLIS = 60_000;
+    // CPU load of the other processes below which the machine is idle
+    private static final double IDLE_CPU_LOAD = 0.2;
+    private static final long CHECK_MILLIS = 2_000;
+    // reads are paced by chunks, so that a large file does not block cancel
+    private static final long PAUSE_CHUNK = 1 << 20;
+
+    // workers running while the machine is in use, the others are paused
+    private static final int THROTTLED_WORKERS = 1;
+    private static final long PAUSE_MILLIS = 250;
+
+    // system properties of the shard worker processes
+    private static final String PROPERTY_PREFIX = "lucenefx.throttle.";
+    // states of a worker, written by the parent process on its standard input
+    static final String FULL = "full";
+    static final String THROTTLED = "throttled";
+    static final String PAUSED = "paused";
+
+    // time of the last input event in a LuceneFx window
+    private static volatile long lastUserActivity = System.currentTimeMillis();
+
+    private final boolean background;
+    // true in a shard worker throttled by its parent process
+    private final boolean controlled;
+    private final RateLimiter.SimpleRateLimiter reads;
+    private ConcurrentMergeScheduler mergeScheduler;
+    private ScheduledExecutorService monitor;
+    private volatile boolean throttled;
+    private volatile boolean paused;
+
+    // shard workers of the parent process, their CPU time when last checked
+    private List<ProcessHandle> workers = List.of();
+    private long[] workersCpuNanos = new long[0];
+    private long workersCheckNanos;
+
+    /**
+     * IndexThrottle
+     *
+     * @param background    true to throttle the run while the machine is in use
+     * @param readMBPerSec  rate of the files read while throttled
+     */
+    public IndexThrottle(boolean background, double readMBPerSec) {
+        this(background, false, readMBPerSec);
+    }
+
+    private IndexThrottle(boolean background, boolean controlled, double readMBPerSec) {
+        this.background = background;
+        this.controlled = controlled;
+        this.reads = new RateLimiter.SimpleRateLimiter(readMBPerSec);
+    }
+
+    /**
+     * @return options of a java command running a shard worker with this throttle.<br>
+     * A worker sees no input event of the GUI: its state is decided by this throttle, see {@link #workerState}.
+     */
+    public List<String> toJavaOptions() {
+        return List.of(
+                "-D" + PROPERTY_PREFIX + "background=" + background,
+                "-D" + PROPERTY_PREFIX + "controlled=true",
+                "-D" + PROPERTY_PREFIX + "readMBPerSec=" + reads.getMBPerSec());
+    }
+
+    /**
+     * @return throttle of a shard worker, set by the parent process with toJavaOptions()
+     */
+    public static IndexThrottle fromSystemProperties() {
+        return new IndexThrottle(Boolean.getBoolean(PROPERTY_PREFIX + "background"),
+                Boolean.getBoolean(PROPERTY_PREFIX + "controlled"),
+                Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "readMBPerSec",
+                        Double.toString(DEFAULT_READ_MB_PER_SEC))));
+    }
+
+    /**
+     * record an input event of the user, called by the GUI
+     */
+    public static void userActivity() {
+        lastUserActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * @return merge scheduler of the index writer, throttled if the machine is in use
+     */
+    public synchronized ConcurrentMergeScheduler mergeScheduler() {
+        mergeScheduler = new ConcurrentMergeScheduler();
+        if (controlled) {
+            // throttled until the parent process tells otherwise
+            if (monitor == null)
+                throttled = background;
+            apply();
+            listen();
+        } else if (background) {
+            if (monitor == null)
+                throttled = !isIdle();
+            apply();
+            watch();
+        }
+        return mergeScheduler;
+    }
+
+    /**
+     * throttle the shard workers of a sharded build, decided by this process
+     *
+     * @param processes worker processes
+     */
+    public synchronized void watchWorkers(List<Process> processes) {
+        workers = processes.stream().map(Process::toHandle).toList();
+        workersCpuNanos = new long[workers.size()];
+        if (background && monitor == null) {
+            throttled = !isIdle();
+            watch();
+        }
+    }
+
+    /**
+     * @param rank rank of a worker among the running workers
+     * @return state of the worker, to write on its standard input
+     */
+    public String workerState(int rank) {
+        if (!throttled)
+            return FULL;
+        return (rank < THROTTLED_WORKERS) ? THROTTLED : PAUSED;
+    }
+
+    /**
+     * check the machine every CHECK_MILLIS
+     */
+    private void watch() {
+        if (monitor != null)
+            return;
+        monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "IndexThrottle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        monitor.scheduleWithFixedDelay(this::check, CHECK_MILLIS, CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * read the states written by the parent process on the standard input of a shard worker
+     */
+    private void listen() {
+        if (monitor != null)
+            return;
+        monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "IndexThrottle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        monitor.execute(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    setState(line.trim());
+                }
+            } catch (IOException e) {
+                log.warn("Could not read the throttle state from the parent process", e);
+            }
+        });
+    }
+
+    private synchronized void setState(String state) {
+        boolean busy = !FULL.equals(state);
+        paused = PAUSED.equals(state);
+        if (busy != throttled) {
+            throttled = busy;
+            log.info("indexing {}", state);
+            if (mergeScheduler != null)
+                apply();
+        }
+    }
+
+    /**
+     * wait before reading a file, while throttled or paused
+     *
+     * @param bytes     size of the file
+     * @param cancelled true if the run was cancelled
+     */
+    public void pauseRead(long bytes, BooleanSupplier cancelled) {
+        while (paused && !cancelled.getAsBoolean()) {
+            try {
+                Thread.sleep(PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        for (long left = bytes; left > 0 && throttled && !cancelled.getAsBoolean(); left -= PAUSE_CHUNK) {
+            reads.pause(Math.min(left, PAUSE_CHUNK));
+        }
+    }
+
+    /**
+     * @return true if reads and merges are currently throttled
+     */
+    public boolean isThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return true if nobody uses LuceneFx nor, as far as the CPU load tells, the machine
+     */
+    private boolean isIdle() {
+        if (System.currentTimeMillis() - lastUserActivity < IDLE_MILLIS)
+            return false;
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            double others = os.getCpuLoad() - os.getProcessCpuLoad() - workersCpuLoad();
+            return others < IDLE_CPU_LOAD;
+        }
+        return true;
+    }
+
+    /**
+     * @return CPU load of the shard workers since the previous check, 0 on the first check
+     */
+    private double workersCpuLoad() {
+        long now = System.nanoTime();
+        long cpu = 0;
+        for (int i = 0; i < workers.size(); i++) {
+            // a worker that exited has no CPU time any more
+            Optional<Duration> total = workers.get(i).info().totalCpuDuration();
+            if (total.isPresent()) {
+                long nanos = total.get().toNanos();
+                cpu += nanos - workersCpuNanos[i];
+                workersCpuNanos[i] = nanos;
+            }
+        }
+        double load = (workersCheckNanos == 0 || now == workersCheckNanos) ? 0
+                : (double) cpu / (now - workersCheckNanos) / Runtime.getRuntime().availableProcessors();
+        workersCheckNanos = now;
+        return load;
+    }
+
+    private synchronized void check() {
+        boolean busy = !isIdle();
+        if (busy != throttled) {
+            throttled = busy;
+            log.info("machine {}, indexing {}", busy ? "in use" : "idle", busy ? "throttled" : "at full speed");
+            if (mergeScheduler != null)
+                apply();
+        }
+    }
+
+    /**
+     * adjust the merge scheduler, running merges take the new rates
+     */
+    private void apply() {
+        if (throttled) {
+            mergeScheduler.setMaxMergesAndThreads(2, 1);
+            mergeScheduler.enableAutoIOThrottle();
+            mergeScheduler.setForceMergeMBPerSec(FORCE_MERGE_MB_PER_SEC);
+        } else {
+            mergeScheduler.setDefaultMaxMergesAndThreads(false);
+            mergeScheduler.disableAutoIOThrottle();
+            mergeScheduler.setForceMergeMBPerSec(Double.POSITIVE_INFINITY);
+        }
+    }
+
+    /**
+     * stop watching the machine
+     */
+    @Override
+    public synchronized void close() {
+        if (monitor != null) {
+            monitor.shutdownNow();
+            monitor = null;
+        }
+        workers = List.of();
+        throttled = false;
+        paused = false;
+    }
+
+    /**
+     * @return state of the throttle, for the indexing metrics
+     */
+    @Override
+    public String toString() {
+        if (!background)
+            return "full speed";
+        return String.format("background, reads %.0f MB/s, %s", reads.getMBPerSec(),
+                paused ? "paused" : throttled ? "throttled" : "idle");
+    }
+}
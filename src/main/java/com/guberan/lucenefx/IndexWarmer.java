@@ -0,0 +1,227 @@
+package com.guberan.lucenefx;
+
+import javafx.concurrent.Task;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Warm-up task, run in the background after the index is opened.<br>
+ * Touches terms, norms and doc values of each segment, then replays the queries of
+ * the last session, so that the first user query hits a warm page cache and a warm JIT.
+ * The reader is kept open until the warm-up ends, even if it is closed meanwhile.
+ */
+public class IndexWarmer extends Task<Void> {
+    private static final Logger log = LoggerFactory.getLogger(IndexWarmer.class);
+
+    // small hot files loaded in memory when opened: terms index, doc values, norms, points index, compound files
+    private static final Set<String> PRELOAD_EXTENSIONS = Set.of("tip", "tmd", "dvd", "dvm", "nvd", "nvm", "kdi", "kdm", "cfs");
+    private static final long PRELOAD_MAX_BYTES = 64L << 20;
+    // doc values, preloaded whatever their size by the fast profile
+    private static final Set<String> DOC_VALUES_EXTENSIONS = Set.of("dvd", "dvm");
+
+    private final IndexSearcher searcher;
+    private final Analyzer analyzer;
+    private final IndexProfile profile;
+    private final List<String> queries;
+    private final int maxResults;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    // set by call(), or by awaitDone() if the task was cancelled before it started
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /**
+     * IndexWarmer
+     *
+     * @param searcher   searcher of the opened index
+     * @param analyzer   analyzer used to parse queries
+     * @param profile    profile of the index
+     * @param queries    queries to replay
+     * @param maxResults number of hits of each replayed query
+     */
+    public IndexWarmer(IndexSearcher searcher, Analyzer analyzer, IndexProfile profile, List<String> queries,
+                       int maxResults) {
+        this.searcher = searcher;
+        this.analyzer = analyzer;
+        this.profile = profile;
+        this.queries = List.copyOf(queries);
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * open an index directory, preloading its small hot files
+     *
+     * @param indexPath index directory
+     * @return directory
+     */
+    public static Directory open(Path indexPath) throws IOException {
+        MMapDirectory dir = new MMapDirectory(indexPath);
+        boolean preloadDocValues = Files.isDirectory(indexPath) && IndexProfile.read(dir).preloadDocValues();
+        dir.setPreload((name, context) -> isHot(dir, name, preloadDocValues));
+        return dir;
+    }
+
+    private static boolean isHot(Directory dir, String name, boolean preloadDocValues) {
+        int i = name.lastIndexOf('.');
+        if (i < 0 || !PRELOAD_EXTENSIONS.contains(name.substring(i + 1)))
+            return false;
+        if (preloadDocValues && DOC_VALUES_EXTENSIONS.contains(name.substring(i + 1)))
+            return true;
+        try {
+            return dir.fileLength(name) <= PRELOAD_MAX_BYTES;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * wait until the warm-up no longer reads the index, after it ended or was cancelled
+     */
+    public void awaitDone() throws InterruptedException {
+        if (started.compareAndSet(false, true))
+            return; // call() will not run anymore
+        finished.await();
+    }
+
+    @Override
+    protected Void call() {
+        try {
+            if (!started.compareAndSet(false, true))
+                return null;
+            IndexReader reader = searcher.getIndexReader();
+            if (!reader.tryIncRef())
+                return null; // closed before the warm-up started
+            try {
+                warm(reader);
+            } finally {
+                reader.decRef();
+            }
+        } catch (IOException e) {
+            log.debug("Could not release the warmed reader", e);
+        } finally {
+            finished.countDown();
+        }
+        return null;
+    }
+
+    /**
+     * warm the segments, then replay the queries
+     */
+    private void warm(IndexReader reader) {
+        long start = System.currentTimeMillis();
+        List<LeafReaderContext> leaves = reader.leaves();
+        int total = leaves.size() + queries.size();
+        int done = 0;
+        int replayed = 0;
+        long queryNanos = 0;
+
+        updateMessage(LuceneFx.tr("IndexWarmer.warm"));
+        try {
+            for (LeafReaderContext leaf : leaves) {
+                if (isCancelled())
+                    return;
+                warmLeaf(leaf.reader());
+                updateProgress(++done, total);
+            }
+
+            // within the cost limits of the searches
+            SearchQueryParser parser = new SearchQueryParser(analyzer);
+            parser.setPhraseSearch(profile.positions());
+            QueryGuard guard = new QueryGuard(QueryGuard.BUDGET_MILLIS);
+            IndexSearcher timed = guard.searcher(reader);
+            for (String query : queries) {
+                if (isCancelled())
+                    return;
+                try {
+                    // second run, once the first one loaded the pages and compiled the code
+                    guard.start();
+                    Query q = guard.check(parser.parse(query), reader);
+                    timed.search(q, maxResults);
+                    guard.start();
+                    long queryStart = System.nanoTime();
+                    timed.search(q, maxResults);
+                    queryNanos += System.nanoTime() - queryStart;
+                    replayed++;
+                } catch (Exception e) {
+                    log.debug("Could not replay query '{}'", query, e);
+                } finally {
+                    guard.stop();
+                }
+                updateProgress(++done, total);
+            }
+        } catch (Exception e) {
+            // the index directory may have been closed while warming
+            log.debug("Warm-up interrupted", e);
+            return;
+        }
+
+        log.info("index warmed up in {} ms ({} segments, {} queries)", System.currentTimeMillis() - start,
+                leaves.size(), queries.size());
+        if (replayed > 0)
+            log.info("{} profile: average query latency {} ms over {} queries", profile.name().toLowerCase(Locale.ROOT),
+                    String.format(Locale.ROOT, "%.2f", queryNanos / 1e6 / replayed), replayed);
+        updateMessage(LuceneFx.tr("IndexWarmer.ready"));
+    }
+
+    /**
+     * read terms, norms and doc values of a segment
+     */
+    private void warmLeaf(LeafReader reader) throws IOException {
+        Terms terms = reader.terms(LuceneFx.KEY_CONTENTS);
+        if (terms != null) {
+            TermsEnum termsEnum = terms.iterator();
+            for (char c = 'a'; c <= 'z'; c++) {
+                if (termsEnum.seekCeil(new BytesRef(String.valueOf(c))) == TermsEnum.SeekStatus.END)
+                    break;
+                termsEnum.postings(null);
+            }
+        }
+
+        NumericDocValues norms = reader.getNormValues(LuceneFx.KEY_CONTENTS);
+        while (norms != null && norms.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+            norms.longValue();
+        }
+
+        readAll(DocValues.getSortedNumeric(reader, LuceneFx.KEY_MODIFIED));
+        readAll(DocValues.getSortedNumeric(reader, LuceneFx.KEY_ATTACHMENTS));
+
+        SortedSetDocValues facets = DocValues.getSortedSet(reader, FacetsConfig.DEFAULT_INDEX_FIELD_NAME);
+        while (facets.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+            for (int i = 0; i < facets.docValueCount(); i++) {
+                facets.nextOrd();
+            }
+        }
+    }
+
+    private static void readAll(SortedNumericDocValues values) throws IOException {
+        while (values.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+            for (int i = 0; i < values.docValueCount(); i++) {
+                values.nextValue();
+            }
+        }
+    }
+}
@@ -6,11 +6,15 @@ package com.guberan.lucenefx;
 public class Launcher {
 
     /**
-     * Call real LuceneFx main() method
+     * Call real LuceneFx main() method, or run the CDS training run without GUI
      *
      * @param args arguments
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (Boolean.getBoolean(Startup.TRAINING_PROPERTY)) {
+            Startup.train();
+            System.exit(0);
+        }
         LuceneFx.main(args);
     }
 
@@ -5,6 +5,9 @@ import javafx.application.Platform;
 import javafx.beans.property.*;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -18,23 +21,44 @@ import javafx.scene.input.*;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Priority;
 import javafx.scene.media.AudioClip;
+import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.util.Callback;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.FacetsCollectorManager;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.index.StoredFields;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermInSetQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollectorManager;
+import org.apache.lucene.search.TotalHits;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -44,13 +68,27 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.NumberFormat;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.prefs.Preferences;
 
@@ -66,10 +104,36 @@ public class LuceneFx extends Application implements Initializable {
     public static final String PREF_DOC_PATH = "docPath";
     public static final String PREF_REINDEX = "reindex";
     public static final String PREF_MAX_RESULTS = "maxResults";
+    public static final String PREF_SNAPSHOT_PATH = "snapshotPath";
+    public static final String PREF_RECENT_QUERIES = "recentQueries";
+    public static final String PREF_INDEX_PROFILE = "indexProfile";
+    public static final String PREF_RECENCY_BOOST = "recencyBoost";
+    public static final String PREF_ATTACHMENTS_BOOST = "attachmentsBoost";
+    public static final String PREF_FOLDER_BOOST = "folderBoost";
+    public static final String PREF_FOLDER_WEIGHTS = "folderWeights";
+    public static final String PREF_TERM_VECTORS = "termVectors";
+    public static final String PREF_BACKGROUND_INDEXING = "backgroundIndexing";
+    public static final String PREF_READ_LIMIT = "readLimitMB";
+    public static final String PREF_INDEX_WORKERS = "indexWorkers";
+    public static final String PREF_REPLICA_PATH = "replicaPath";
+    public static final String PREF_READ_AHEAD = "readAheadMB";
+    public static final String PREF_NEWEST_FIRST = "newestFirst";
+    public static final String PREF_INCLUDE = "include";
+    public static final String PREF_EXCLUDE = "exclude";
+    public static final String PREF_MAX_FILE_SIZE = "maxFileSizeMB";
+    public static final String PREF_SKIP_BINARIES = "skipBinaries";
+    public static final String PREF_NAME_ONLY = "nameOnly";
+    public static final String PREF_SAVED_SEARCHES = "savedSearches";
     public static final String KEY_CONTENTS = "contents";
+    public static final String KEY_MODIFIED = "modified";
+    public static final String KEY_ATTACHMENTS = "attachments";
+    public static final String KEY_PATH = "path";
+    public static final String KEY_HASH = "hash";
+    public static final String KEY_DUPLICATE_OF = "duplicateOf";
+    public static final String KEY_PARENT = "parent";
     public static final String INDEX_DIR_NAME = ".lucene_index";
 
-    // private static final Logger log = LoggerFactory.getLogger(LuceneFx.class);
+    private static final Logger log = LoggerFactory.getLogger(LuceneFx.class);
 
     // static resources and application object
     private static final ResourceBundle i18nBundle = ResourceBundle.getBundle("com.guberan.lucenefx.ResourceBundle");
@@ -83,16 +147,67 @@ public class LuceneFx extends Application implements Initializable {
     protected TableView<ResultDoc> tbl;
     @FXML
     protected Button btnSearch;
+    @FXML
+    protected DatePicker dateFrom;
+    @FXML
+    protected DatePicker dateTo;
+    @FXML
+    protected Spinner<Integer> minAttachments;
+    @FXML
+    protected CheckBox cbxCollapse;
+    @FXML
+    protected CheckBox cbxFacets;
+    @FXML
+    protected TreeView<DocFacets.FacetItem> facetTree;
+    @FXML
+    protected ListView<DocFacets.FacetItem> filterListView;
+    @FXML
+    protected Label statusLabel;
+    @FXML
+    protected Label hitsLabel;
+    @FXML
+    protected Hyperlink lnkCount;
+    @FXML
+    protected ProgressBar statusProgress;
 
     // current result list
     protected ObservableList<ResultDoc> resultList = FXCollections.observableArrayList();
+    // facet values selected as filters
+    protected ObservableList<DocFacets.FacetItem> filterList = FXCollections.observableArrayList();
 
     // indexes and other object for lucene
     private Directory luceneDir;
-    private IndexReader indexReader;
+    // read by the refresh of a replica
+    private volatile IndexReader indexReader;
     private IndexSearcher searcher;
     private Analyzer analyzer;
-    private QueryParser parser;
+    private SearchQueryParser parser;
+    private SortedSetDocValuesReaderState facetState;
+    private SimilarDocs similarDocs;
+    // profile of the opened index
+    private IndexProfile indexProfile = IndexProfile.FAST;
+    // temporary index directory, deleted when the index is closed
+    private Path tempIndexPath;
+    private IndexWarmer warmer;
+    // checks a replica for new commits, null if the index is not a replica
+    private ScheduledExecutorService refresher;
+    private static final long REFRESH_SECONDS = 10;
+    // indexing run searched while it indexes, null if none is running
+    private IndexTask liveIndexing;
+    // cancelled run still committing its checkpoint, the index is reopened once its writer is closed
+    private IndexTask stoppingIndexing;
+    private boolean reopenRebuild;
+    // last queries, replayed by the warm-up of the next session
+    private final LinkedList<String> recentQueries = new LinkedList<>();
+    private static final int MAX_RECENT_QUERIES = 20;
+    // hits counted exactly when facets are off, above this the count is a lower bound
+    private static final int TOTAL_HITS_THRESHOLD = 1000;
+    // last search without relevance features, for the exact count
+    private Query countQuery;
+    // number of hits shown, exact or a lower bound
+    private TotalHits shownTotalHits;
+    // cost limits of the searches
+    private final QueryGuard queryGuard = new QueryGuard(QueryGuard.BUDGET_MILLIS);
 
     // clipboard
     private final Clipboard systemClipboard = Clipboard.getSystemClipboard();
@@ -115,6 +230,32 @@ public class LuceneFx extends Application implements Initializable {
     private final SimpleObjectProperty<Path> indexPathProp = new SimpleObjectProperty<>(this, PREF_INDEX_PATH);
     private final SimpleBooleanProperty reindexProp = new SimpleBooleanProperty(this, PREF_REINDEX);
     private final SimpleIntegerProperty maxResultsProp = new SimpleIntegerProperty(this, PREF_MAX_RESULTS, 1000);
+    private final SimpleObjectProperty<Path> snapshotPathProp = new SimpleObjectProperty<>(this, PREF_SNAPSHOT_PATH);
+    private final SimpleObjectProperty<IndexProfile> indexProfileProp = new SimpleObjectProperty<>(this, PREF_INDEX_PROFILE,
+            IndexProfile.FAST);
+    private final SimpleDoubleProperty recencyBoostProp = new SimpleDoubleProperty(this, PREF_RECENCY_BOOST,
+            DocFeatures.Weights.DEFAULT.recency());
+    private final SimpleDoubleProperty attachmentsBoostProp = new SimpleDoubleProperty(this, PREF_ATTACHMENTS_BOOST,
+            DocFeatures.Weights.DEFAULT.attachments());
+    private final SimpleDoubleProperty folderBoostProp = new SimpleDoubleProperty(this, PREF_FOLDER_BOOST,
+            DocFeatures.Weights.DEFAULT.folder());
+    private final SimpleStringProperty folderWeightsProp = new SimpleStringProperty(this, PREF_FOLDER_WEIGHTS, "");
+    private final SimpleBooleanProperty termVectorsProp = new SimpleBooleanProperty(this, PREF_TERM_VECTORS);
+    private final SimpleBooleanProperty backgroundIndexingProp = new SimpleBooleanProperty(this, PREF_BACKGROUND_INDEXING);
+    private final SimpleDoubleProperty readLimitProp = new SimpleDoubleProperty(this, PREF_READ_LIMIT,
+            IndexThrottle.DEFAULT_READ_MB_PER_SEC);
+    private final SimpleIntegerProperty indexWorkersProp = new SimpleIntegerProperty(this, PREF_INDEX_WORKERS, 1);
+    private final SimpleObjectProperty<Path> replicaPathProp = new SimpleObjectProperty<>(this, PREF_REPLICA_PATH);
+    private final SimpleIntegerProperty readAheadProp = new SimpleIntegerProperty(this, PREF_READ_AHEAD,
+            ReadAhead.DEFAULT_BUDGET_MB);
+    private final SimpleBooleanProperty newestFirstProp = new SimpleBooleanProperty(this, PREF_NEWEST_FIRST);
+    private final SimpleStringProperty includeProp = new SimpleStringProperty(this, PREF_INCLUDE, "");
+    private final SimpleStringProperty excludeProp = new SimpleStringProperty(this, PREF_EXCLUDE, "");
+    private final SimpleIntegerProperty maxFileSizeProp = new SimpleIntegerProperty(this, PREF_MAX_FILE_SIZE,
+            IndexFilter.DEFAULT_MAX_SIZE_MB);
+    private final SimpleBooleanProperty skipBinariesProp = new SimpleBooleanProperty(this, PREF_SKIP_BINARIES, true);
+    private final SimpleBooleanProperty nameOnlyProp = new SimpleBooleanProperty(this, PREF_NAME_ONLY, true);
+    private final SimpleStringProperty savedSearchesProp = new SimpleStringProperty(this, PREF_SAVED_SEARCHES, "");
 
     public SimpleObjectProperty<Path> docPathProperty() {
         return docPathProp;
@@ -132,6 +273,90 @@ public class LuceneFx extends Application implements Initializable {
         return maxResultsProp;
     }
 
+    public SimpleObjectProperty<Path> snapshotPathProperty() {
+        return snapshotPathProp;
+    }
+
+    public SimpleObjectProperty<IndexProfile> indexProfileProperty() {
+        return indexProfileProp;
+    }
+
+    public SimpleDoubleProperty recencyBoostProperty() {
+        return recencyBoostProp;
+    }
+
+    public SimpleDoubleProperty attachmentsBoostProperty() {
+        return attachmentsBoostProp;
+    }
+
+    public SimpleDoubleProperty folderBoostProperty() {
+        return folderBoostProp;
+    }
+
+    public SimpleStringProperty folderWeightsProperty() {
+        return folderWeightsProp;
+    }
+
+    public SimpleBooleanProperty termVectorsProperty() {
+        return termVectorsProp;
+    }
+
+    public SimpleBooleanProperty backgroundIndexingProperty() {
+        return backgroundIndexingProp;
+    }
+
+    public SimpleDoubleProperty readLimitProperty() {
+        return readLimitProp;
+    }
+
+    public SimpleIntegerProperty indexWorkersProperty() {
+        return indexWorkersProp;
+    }
+
+    public SimpleObjectProperty<Path> replicaPathProperty() {
+        return replicaPathProp;
+    }
+
+    public SimpleIntegerProperty readAheadProperty() {
+        return readAheadProp;
+    }
+
+    public SimpleBooleanProperty newestFirstProperty() {
+        return newestFirstProp;
+    }
+
+    public SimpleStringProperty includeProperty() {
+        return includeProp;
+    }
+
+    public SimpleStringProperty excludeProperty() {
+        return excludeProp;
+    }
+
+    public SimpleIntegerProperty maxFileSizeProperty() {
+        return maxFileSizeProp;
+    }
+
+    public SimpleBooleanProperty skipBinariesProperty() {
+        return skipBinariesProp;
+    }
+
+    public SimpleBooleanProperty nameOnlyProperty() {
+        return nameOnlyProp;
+    }
+
+    public SimpleStringProperty savedSearchesProperty() {
+        return savedSearchesProp;
+    }
+
+    /**
+     * @return boost weights of the relevance features
+     */
+    public DocFeatures.Weights boostWeights() {
+        return new DocFeatures.Weights(recencyBoostProp.floatValue(), attachmentsBoostProp.floatValue(),
+                folderBoostProp.floatValue());
+    }
+
     public static LuceneFx getApp() {
         return app;
     }
@@ -145,6 +370,40 @@ public class LuceneFx extends Application implements Initializable {
         prefs.put(PREF_DOC_PATH, docPathProperty().get().toString());
         prefs.put(PREF_INDEX_PATH, indexPathProp.get().toString());
         prefs.put(PREF_REINDEX, String.valueOf(reindexProperty().get()));
+        prefs.put(PREF_SNAPSHOT_PATH, snapshotPathProperty().get().toString());
+        prefs.put(PREF_INDEX_PROFILE, indexProfileProperty().get().name());
+        prefs.putDouble(PREF_RECENCY_BOOST, recencyBoostProperty().get());
+        prefs.putDouble(PREF_ATTACHMENTS_BOOST, attachmentsBoostProperty().get());
+        prefs.putDouble(PREF_FOLDER_BOOST, folderBoostProperty().get());
+        prefs.put(PREF_FOLDER_WEIGHTS, folderWeightsProperty().get());
+        prefs.put(PREF_TERM_VECTORS, String.valueOf(termVectorsProperty().get()));
+        prefs.put(PREF_BACKGROUND_INDEXING, String.valueOf(backgroundIndexingProperty().get()));
+        prefs.putDouble(PREF_READ_LIMIT, readLimitProperty().get());
+        prefs.putInt(PREF_INDEX_WORKERS, indexWorkersProperty().get());
+        prefs.put(PREF_REPLICA_PATH, replicaPathProperty().get().toString());
+        prefs.putInt(PREF_READ_AHEAD, readAheadProperty().get());
+        prefs.put(PREF_NEWEST_FIRST, String.valueOf(newestFirstProperty().get()));
+        prefs.put(PREF_INCLUDE, includeProperty().get());
+        prefs.put(PREF_EXCLUDE, excludeProperty().get());
+        prefs.putInt(PREF_MAX_FILE_SIZE, maxFileSizeProperty().get());
+        prefs.put(PREF_SKIP_BINARIES, String.valueOf(skipBinariesProperty().get()));
+        prefs.put(PREF_NAME_ONLY, String.valueOf(nameOnlyProperty().get()));
+        prefs.put(PREF_SAVED_SEARCHES, savedSearchesProperty().get());
+        saveRecentQueries();
+    }
+
+
+    /**
+     * save recent queries, limited to the maximum length of a preference value
+     */
+    private void saveRecentQueries() {
+        StringBuilder sb = new StringBuilder();
+        for (String query : recentQueries) {
+            if (sb.length() + query.length() + 1 > Preferences.MAX_VALUE_LENGTH)
+                break;
+            sb.append(query).append('\n');
+        }
+        Preferences.userNodeForPackage(LuceneFx.class).put(PREF_RECENT_QUERIES, sb.toString());
     }
 
 
@@ -152,22 +411,36 @@ public class LuceneFx extends Application implements Initializable {
      * openIndex
      */
     public void openIndex(boolean rebuildIndex) {
+        if (liveIndexing != null || stoppingIndexing != null) {
+            // the run commits a checkpoint and closes its writer in the background, then the index is reopened
+            reopenRebuild |= rebuildIndex;
+            if (stoppingIndexing == null)
+                stopLiveIndexing();
+            return;
+        }
         try {
-            if (luceneDir != null) {
-                luceneDir.close();
-            }
-
-            if (Files.exists(indexPathProperty().get())) {
-                // open current index directory
-                luceneDir = FSDirectory.open(indexPathProperty().get());
-            } else if (!indexPathProperty().get().toString().isEmpty()) {
+            closeIndex();
+
+            // an unset index path is Paths.get(""), which exists: the working directory
+            boolean hasIndexPath = !indexPathProperty().get().toString().isEmpty();
+            if (hasIndexPath && Files.exists(indexPathProperty().get())) {
+                // open current index directory, hot files are preloaded
+                luceneDir = IndexWarmer.open(indexPathProperty().get());
+            } else if (hasIndexPath) {
                 // will create new index here
                 rebuildIndex = true;
-                luceneDir = FSDirectory.open(indexPathProperty().get());
+                luceneDir = IndexWarmer.open(indexPathProperty().get());
+            } else if (IndexDirectories.hasSnapshot(snapshotPathProperty().get(), docPathProperty().get())) {
+                // memory index, reloaded from the snapshot saved on exit
+                luceneDir = IndexDirectories.loadSnapshot(snapshotPathProperty().get());
             } else if (Files.exists(docPathProperty().get())) {
-                // memory index
-                Path tempDirWithPrefix = Files.createTempDirectory("LuceneFx");
-                luceneDir = new MMapDirectory(tempDirWithPrefix);
+                // memory index, or temporary directory if the documents are too large
+                if (IndexDirectories.fitsInHeap(docPathProperty().get())) {
+                    luceneDir = new ByteBuffersDirectory();
+                } else {
+                    tempIndexPath = Files.createTempDirectory("LuceneFx");
+                    luceneDir = IndexDirectories.openTemporary(tempIndexPath);
+                }
                 rebuildIndex = true; // force index rebuild
             } else {
                 // no index nor document directory !
@@ -176,18 +449,177 @@ public class LuceneFx extends Application implements Initializable {
                 return;
             }
 
+            // a replica is only written by the replicator of the indexing instance
+            boolean readOnly = hasIndexPath && IndexReplicator.isReplica(indexPathProperty().get());
+            if (readOnly) {
+                log.info("index '{}' is a replica, opened read-only", indexPathProperty().get());
+                rebuildIndex = false;
+            }
+
+            // an interrupted indexing run is resumed from its last checkpoint
+            if (!readOnly && !rebuildIndex && IndexTask.hasCheckpoint(luceneDir, docPathProperty().get())) {
+                log.info("index of '{}' is incomplete, resuming indexing", docPathProperty().get());
+                rebuildIndex = true;
+            }
+
+            // the index of another document directory is rebuilt, it is never mixed with this one
+            if (!readOnly && !rebuildIndex && DirectoryReader.indexExists(luceneDir)
+                    && !IndexTask.isIndexOf(luceneDir, docPathProperty().get())) {
+                log.info("index is not an index of '{}', rebuilding index", docPathProperty().get());
+                rebuildIndex = true;
+            }
+
+            // a new profile changes the schema, the index is rebuilt
+            if (!readOnly && !rebuildIndex && DirectoryReader.indexExists(luceneDir)
+                    && IndexProfile.read(luceneDir) != indexProfileProperty().get()) {
+                log.info("index profile changed to {}, rebuilding index", indexProfileProperty().get().name());
+                rebuildIndex = true;
+            }
+
+            // term vectors cannot be added to or removed from the documents of an index
+            if (!readOnly && !rebuildIndex && DirectoryReader.indexExists(luceneDir)
+                    && SimilarDocs.hasTermVectors(luceneDir) != termVectorsProperty().get()) {
+                log.info("term vectors {}, rebuilding index", termVectorsProperty().get() ? "enabled" : "disabled");
+                rebuildIndex = true;
+            }
+
+            boolean live = false;
             if (rebuildIndex && Files.exists(docPathProperty().get())) {
-                reIndex();
+                live = reIndex();
             }
 
-            indexReader = DirectoryReader.open(luceneDir);
-            searcher = new IndexSearcher(indexReader);
-            analyzer = new NoAccentAnalyzer();
+            analyzer = Startup.analyzer();
             //analyzer = new ICUCollationKeyAnalyzer(Collator.getInstance(new ULocale("ch", "FR")));
-            parser = new QueryParser(KEY_CONTENTS, analyzer);
-
+            parser = new SearchQueryParser(analyzer);
             resultList.clear();
+            filterList.clear();
+            facetTree.setRoot(null);
+            countQuery = null;
+            showTotalHits(null);
+
+            if (live && !DirectoryReader.indexExists(luceneDir)) {
+                // new index, searchable with the first documents indexed
+                btnSearch.setDisable(true);
+                return;
+            }
+            setReader(DirectoryReader.open(luceneDir), IndexProfile.read(luceneDir));
+            log.info("index opened, {} profile, {} documents, {} MB", indexProfile.name().toLowerCase(Locale.ROOT),
+                    indexReader.numDocs(), IndexDirectories.sizeOf(luceneDir) >> 20);
+            btnSearch.setDisable(false);
+            Startup.mark("index searchable");
+
+            startWarmUp();
+            if (readOnly)
+                startRefresh();
+        } catch (IOException e) {
+            showException(e);
+        }
+    }
+
+
+    /**
+     * check the replica for a new commit in the background, the new commit is opened
+     * incrementally (unchanged segments are shared), or entirely if the replica was replaced,
+     * and swapped in on the FX thread
+     */
+    protected void startRefresh() {
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "IndexRefresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                DirectoryReader current = (DirectoryReader) indexReader;
+                if (current == null)
+                    return;
+                DirectoryReader changed = openIfChanged(current);
+                if (changed != null)
+                    Platform.runLater(() -> swapReader(current, changed));
+            } catch (IOException | RuntimeException e) {
+                // the index may have been closed meanwhile
+                log.debug("Could not refresh the replica", e);
+            }
+        }, REFRESH_SECONDS, REFRESH_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * @return reader of the new commit of the replica, null if it has not changed
+     */
+    private static DirectoryReader openIfChanged(DirectoryReader current) throws IOException {
+        try {
+            return DirectoryReader.openIfChanged(current);
+        } catch (IllegalStateException e) {
+            // replica replaced by the commit of another index, its segments have the same names
+            log.info("replica replaced, opening its new commit");
+            return DirectoryReader.open(current.directory());
+        }
+    }
+
+
+    /**
+     * search the new commit of a replica from now on, the displayed results are kept
+     *
+     * @param current reader that was refreshed
+     * @param changed reader of the new commit
+     */
+    private void swapReader(DirectoryReader current, DirectoryReader changed) {
+        try {
+            if (indexReader != current) {
+                // closed or reopened meanwhile
+                changed.close();
+                return;
+            }
+            if (warmer != null)
+                warmer.cancel();
+            setReader(changed, indexProfile);
+            current.close();
+            log.info("replica refreshed, {} documents", indexReader.numDocs());
+            startWarmUp();
+        } catch (IOException e) {
+            showException(e);
+        }
+    }
+
+
+    /**
+     * search reader from now on
+     *
+     * @param reader  reader of the index
+     * @param profile profile the index was written with
+     */
+    private void setReader(DirectoryReader reader, IndexProfile profile) throws IOException {
+        indexReader = reader;
+        indexProfile = profile;
+        searcher = new IndexSearcher(indexReader);
+        facetState = DocFacets.openState(indexReader);
+        similarDocs = new SimilarDocs(searcher, IndexTask.contentsAnalyzer());
+        parser.setPhraseSearch(indexProfile.positions());
+    }
+
+
+    /**
+     * search the documents indexed so far by a run, the displayed results are kept
+     *
+     * @param task   indexing run
+     * @param reader near-real-time reader of the run
+     */
+    private void showIndexed(IndexTask task, DirectoryReader reader) {
+        try {
+            if (liveIndexing != task) {
+                // stopped meanwhile
+                reader.close();
+                return;
+            }
+            if (warmer != null)
+                warmer.cancel();
+            IndexReader previous = indexReader;
+            setReader(reader, indexProfileProperty().get());
             btnSearch.setDisable(false);
+            if (previous != null)
+                previous.close();
+            log.info("{} documents searchable while indexing", reader.numDocs());
         } catch (IOException e) {
             showException(e);
         }
@@ -195,14 +627,207 @@ public class LuceneFx extends Application implements Initializable {
 
 
     /**
-     * Opens a progress dialog and re-index documents
+     * show the new files matching saved searches at the end of a run
+     *
+     * @param task indexing run
      */
-    public void reIndex() throws IOException {
+    private void showAlerts(IndexTask task) {
+        if (task.getAlertCount() == 0)
+            return;
+        StringBuilder sb = new StringBuilder();
+        for (SavedSearches.Alert alert : task.getAlerts()) {
+            sb.append(alert.search()).append('\t').append(alert.path()).append('\n');
+        }
+        beep();
+        Alert alert = new Alert(AlertType.INFORMATION);
+        alert.setTitle(tr("SavedSearches.title"));
+        alert.setHeaderText(tr("SavedSearches.alerts", "", NumberFormat.getIntegerInstance().format(task.getAlertCount())));
+        TextArea textArea = new TextArea(sb.toString());
+        textArea.setEditable(false);
+        alert.getDialogPane().setContent(textArea);
+        alert.show();
+    }
 
-        IndexTask indexTask = new IndexTask(docPathProperty().get(), indexPathProperty().get(), luceneDir);
-        new Thread(indexTask).start();
 
-        loadFxmlInStage("Progress", false, (ProgressController c) -> c.setTask(indexTask));
+    /**
+     * a run searched while it indexes ended: the complete index is searched and warmed up,
+     * the documents indexed so far remain searched if it was cancelled
+     *
+     * @param task indexing run
+     */
+    private void indexingEnded(IndexTask task) {
+        if (liveIndexing != task)
+            return;
+        liveIndexing = null;
+        if (task.getState() != Worker.State.SUCCEEDED && indexReader != null)
+            return;
+        try {
+            if (!DirectoryReader.indexExists(luceneDir))
+                return;
+            if (warmer != null)
+                warmer.cancel();
+            IndexReader previous = indexReader;
+            setReader(DirectoryReader.open(luceneDir), IndexProfile.read(luceneDir));
+            btnSearch.setDisable(false);
+            if (previous != null)
+                previous.close();
+            log.info("index complete, {} documents", indexReader.numDocs());
+            startWarmUp();
+        } catch (IOException e) {
+            showException(e);
+        }
+    }
+
+
+    /**
+     * close the current index.<br>
+     * A memory index is saved to the snapshot directory if one is configured,
+     * a temporary index directory is deleted.
+     */
+    public void closeIndex() throws IOException {
+        IndexTask task = (liveIndexing != null) ? liveIndexing : stoppingIndexing;
+        if (task != null) {
+            // on exit: the run commits a checkpoint before the directory is closed, and is resumed next time
+            liveIndexing = null;
+            stoppingIndexing = null;
+            task.cancel();
+            try {
+                task.awaitClose();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+
+        if (warmer != null) {
+            // the warm-up holds the reader: the directory is closed once it stopped reading
+            warmer.cancel();
+            try {
+                warmer.awaitDone();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            warmer = null;
+        }
+
+        if (indexReader != null) {
+            indexReader.close();
+            indexReader = null;
+        }
+
+        if (luceneDir != null) {
+            Path snapshotPath = snapshotPathProperty().get();
+            if (luceneDir instanceof ByteBuffersDirectory && snapshotPath != null && !snapshotPath.toString().isEmpty()
+                    && DirectoryReader.indexExists(luceneDir)) {
+                IndexDirectories.saveSnapshot(luceneDir, snapshotPath);
+            }
+            luceneDir.close();
+            luceneDir = null;
+        }
+
+        if (tempIndexPath != null) {
+            IndexDirectories.deleteRecursively(tempIndexPath);
+            tempIndexPath = null;
+        }
+    }
+
+
+    /**
+     * cancel the run searched while it indexes without blocking the FX thread: its writer commits a checkpoint
+     * and closes in a background thread, then the index is opened again
+     */
+    private void stopLiveIndexing() {
+        IndexTask task = liveIndexing;
+        liveIndexing = null;
+        stoppingIndexing = task;
+        task.cancel();
+        Thread thread = new Thread(() -> {
+            try {
+                task.awaitClose();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Platform.runLater(() -> {
+                if (stoppingIndexing != task)
+                    return; // closed on exit meanwhile
+                stoppingIndexing = null;
+                boolean rebuild = reopenRebuild;
+                reopenRebuild = false;
+                openIndex(rebuild);
+            });
+        }, "IndexTask-close");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * warm up the index in the background, progress is shown in the status bar
+     */
+    protected void startWarmUp() {
+        warmer = new IndexWarmer(searcher, analyzer, indexProfile, recentQueries, maxResultsProperty().get());
+        statusLabel.textProperty().bind(warmer.messageProperty());
+        statusProgress.progressProperty().bind(warmer.progressProperty());
+        statusProgress.visibleProperty().bind(warmer.runningProperty());
+
+        Thread thread = new Thread(warmer, "IndexWarmer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+
+    /**
+     * Opens a progress dialog and re-index documents.<br>
+     * Newest files first, the index is searched while it indexes and the dialog does not block the window.
+     *
+     * @return true if the index is still being indexed, false once it is complete or cancelled
+     */
+    public boolean reIndex() throws IOException {
+
+        IndexTask indexTask = new IndexTask(docPathProperty().get(), indexPathProperty().get(), luceneDir,
+                indexProfileProperty().get());
+        indexTask.setFeatures(new DocFeatures(DocFeatures.parseFolderWeights(folderWeightsProperty().get())));
+        indexTask.setTermVectors(termVectorsProperty().get());
+        indexTask.setThrottle(new IndexThrottle(backgroundIndexingProperty().get(), readLimitProperty().get()));
+        indexTask.setWorkers(indexWorkersProperty().get());
+        indexTask.setReadAhead((long) readAheadProperty().get() << 20);
+        indexTask.setFilter(new IndexFilter(includeProperty().get(), excludeProperty().get(),
+                (long) maxFileSizeProperty().get() << 20, skipBinariesProperty().get(), nameOnlyProperty().get()));
+        if (!replicaPathProperty().get().toString().isEmpty())
+            indexTask.setReplicator(new IndexReplicator(replicaPathProperty().get()));
+        indexTask.setSavedSearches(SavedSearches.parseLines(savedSearchesProperty().get()));
+        indexTask.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, e -> showAlerts(indexTask));
+        boolean live = newestFirstProperty().get();
+        if (live) {
+            indexTask.setNewestFirst(true);
+            indexTask.setNrtListener(reader -> Platform.runLater(() -> showIndexed(indexTask, reader)));
+            indexTask.runningProperty().addListener((observable, wasRunning, running) -> {
+                if (!running)
+                    indexingEnded(indexTask);
+            });
+            liveIndexing = indexTask;
+        }
+        Thread thread = new Thread(indexTask, "IndexTask");
+        if (backgroundIndexingProperty().get())
+            thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+
+        loadFxmlInStage("Progress", false, !live, (ProgressController c) -> c.setTask(indexTask));
+        if (live)
+            return true;
+
+        // the dialog is closed on cancel, wait for the last checkpoint
+        try {
+            indexTask.awaitClose();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
     }
 
 
@@ -221,6 +846,9 @@ public class LuceneFx extends Application implements Initializable {
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         tbl.setItems(resultList);
+        filterListView.setItems(filterList);
+        facetTree.setShowRoot(false);
+        minAttachments.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(0, 999, 0));
     }
 
 
@@ -233,24 +861,60 @@ public class LuceneFx extends Application implements Initializable {
         FXMLLoader fxmlLoader = new FXMLLoader(LuceneFx.class.getResource("LuceneFx.fxml"));
         fxmlLoader.setController(this);
         stage.setScene(new Scene(fxmlLoader.load()));
+        // user input slows down background indexing
+        stage.getScene().addEventFilter(InputEvent.ANY, e -> IndexThrottle.userActivity());
         stage.setTitle(tr("LuceneFx.stageName"));
         stage.getIcons().addAll(
                 new Image(Objects.requireNonNull(LuceneFx.class.getResourceAsStream("icon32.png"))),
                 new Image(Objects.requireNonNull(LuceneFx.class.getResourceAsStream("icon22.png"))),
                 new Image(Objects.requireNonNull(LuceneFx.class.getResourceAsStream("icon16.png"))));
         stage.show();
+        Startup.mark("window shown");
+
+        // Tika and the analyzer are built in the background while the window is displayed
+        Startup.preload();
 
         // read preferences
         Preferences prefs = Preferences.userNodeForPackage(LuceneFx.class);
         indexPathProperty().set(Paths.get(prefs.get(PREF_INDEX_PATH, "")));
         docPathProperty().set(Paths.get(prefs.get(PREF_DOC_PATH, "")));
         reindexProperty().set(Boolean.parseBoolean(prefs.get(PREF_REINDEX, "")));
+        snapshotPathProperty().set(Paths.get(prefs.get(PREF_SNAPSHOT_PATH, "")));
+        indexProfileProperty().set(IndexProfile.of(prefs.get(PREF_INDEX_PROFILE, "")));
+        recencyBoostProperty().set(prefs.getDouble(PREF_RECENCY_BOOST, DocFeatures.Weights.DEFAULT.recency()));
+        attachmentsBoostProperty().set(prefs.getDouble(PREF_ATTACHMENTS_BOOST, DocFeatures.Weights.DEFAULT.attachments()));
+        folderBoostProperty().set(prefs.getDouble(PREF_FOLDER_BOOST, DocFeatures.Weights.DEFAULT.folder()));
+        folderWeightsProperty().set(prefs.get(PREF_FOLDER_WEIGHTS, ""));
+        termVectorsProperty().set(Boolean.parseBoolean(prefs.get(PREF_TERM_VECTORS, "")));
+        backgroundIndexingProperty().set(Boolean.parseBoolean(prefs.get(PREF_BACKGROUND_INDEXING, "")));
+        readLimitProperty().set(prefs.getDouble(PREF_READ_LIMIT, IndexThrottle.DEFAULT_READ_MB_PER_SEC));
+        indexWorkersProperty().set(prefs.getInt(PREF_INDEX_WORKERS, 1));
+        replicaPathProperty().set(Paths.get(prefs.get(PREF_REPLICA_PATH, "")));
+        readAheadProperty().set(prefs.getInt(PREF_READ_AHEAD, ReadAhead.DEFAULT_BUDGET_MB));
+        newestFirstProperty().set(Boolean.parseBoolean(prefs.get(PREF_NEWEST_FIRST, "")));
+        includeProperty().set(prefs.get(PREF_INCLUDE, ""));
+        excludeProperty().set(prefs.get(PREF_EXCLUDE, ""));
+        maxFileSizeProperty().set(prefs.getInt(PREF_MAX_FILE_SIZE, IndexFilter.DEFAULT_MAX_SIZE_MB));
+        skipBinariesProperty().set(Boolean.parseBoolean(prefs.get(PREF_SKIP_BINARIES, "true")));
+        nameOnlyProperty().set(Boolean.parseBoolean(prefs.get(PREF_NAME_ONLY, "true")));
+        savedSearchesProperty().set(prefs.get(PREF_SAVED_SEARCHES, ""));
+        prefs.get(PREF_RECENT_QUERIES, "").lines().filter(q -> !q.isBlank()).forEach(recentQueries::add);
 
         // open pref dialog if there are no preferences
         if (!Files.exists(indexPathProperty().get()) && !Files.exists(docPathProperty().get()))
             onPref();
-        else
-            openIndex(reindexProperty().get());
+        else // let the window paint before opening the index
+            Platform.runLater(() -> openIndex(reindexProperty().get()));
+    }
+
+
+    /**
+     * application stop, close the index
+     */
+    @Override
+    public void stop() throws IOException {
+        saveRecentQueries();
+        closeIndex();
     }
 
 
@@ -301,32 +965,477 @@ public class LuceneFx extends Application implements Initializable {
      */
     public void search(String text) throws IOException {
         try {
-            // parse search string
-            Query query = parser.parse(text);
-
-            // Collect search results
-            TopDocs results = searcher.search(query, maxResultsProperty().get());
-            ScoreDoc[] hits = results.scoreDocs;
-            StoredFields storedFields = searcher.storedFields();
-
-            // show results in TableView
-            resultList.clear();
-
-            for (ScoreDoc hit : hits) {
-                Document doc = storedFields.document(hit.doc);
-                resultList.add(new ResultDoc(doc, hit.score));
-            }
-        } catch (ParseException ex) {
+            // parse search string, a blank string with filters lists all filtered documents
+            Query query = (text.isBlank() && hasFilters()) ? new MatchAllDocsQuery() : parser.parse(text);
+            // a rejected query is not replayed by the warm-up
+            if (search(query, text))
+                addRecentQuery(text);
+        } catch (TooComplexToDeterminizeException ex) {
+            // wildcard or regular expression too costly to compile, see SearchQueryParser
+            reject(tr("QueryGuard.tooComplex", "", text));
+        } catch (QueryNodeException ex) {
             // if the text could not be parsed, clear search result
             // but do not bring an error dialog.
             // parsing an empty or blank string throws a parser Exception
             ex.printStackTrace();
             resultList.clear();
+            facetTree.setRoot(null);
+            showTotalHits(null);
             beep();
         }
 
     }
 
+
+    /**
+     * search a query with the filters and relevance features, and show the results
+     *
+     * @param query       query to search
+     * @param description query shown in the log
+     * @return false if the search was rejected by the cost limits
+     * @throws IOException raised for document search exceptions
+     */
+    protected boolean search(Query query, String description) throws IOException {
+        // the features only change the order, the exact count is computed without them;
+        // the count and the export run the query as typed, without the limits of the search
+        countQuery = addFilters(query);
+
+        // wildcards and regular expressions are expanded within the time budget of the search
+        long start = System.nanoTime();
+        queryGuard.start();
+        TopDocs results;
+        Query unfiltered;
+        boolean partial;
+        try {
+            query = queryGuard.check(query, indexReader);
+
+            // recent, with attachments or in important folders first
+            unfiltered = DocFeatures.boost(query, boostWeights());
+            query = addFilters(unfiltered);
+
+            // Collect search results, and facet counts in the same pass, stopped when the budget is spent
+            IndexSearcher timed = queryGuard.searcher(indexReader);
+            if (facetState != null && cbxFacets.isSelected()) {
+                // facets count every hit, the total is exact
+                FacetsCollectorManager.FacetsResult facetsResult = FacetsCollectorManager.search(timed, query,
+                        maxResultsProperty().get(), new FacetsCollectorManager());
+                results = facetsResult.topDocs();
+                showFacets(DocFacets.count(facetState, facetsResult.facetsCollector()));
+            } else {
+                // hits are counted up to the threshold only, then non-competitive blocks are skipped
+                results = timed.search(query,
+                        new TopScoreDocCollectorManager(maxResultsProperty().get(), TOTAL_HITS_THRESHOLD));
+                facetTree.setRoot(null);
+            }
+            partial = timed.timedOut();
+        } catch (QueryGuard.RejectedException e) {
+            reject(e.getMessage());
+            return false;
+        } catch (IndexSearcher.TooManyClauses e) {
+            reject(tr("QueryGuard.tooManyClauses", "", IndexSearcher.getMaxClauseCount()));
+            return false;
+        } finally {
+            queryGuard.stop();
+        }
+        if (partial)
+            queryGuard.warn(tr("QueryGuard.partial", "", QueryGuard.BUDGET_MILLIS / 1000));
+        if (!queryGuard.getWarnings().isEmpty()) {
+            // hits of the words not searched or of the documents not visited are missing, the total is a
+            // lower bound, and the count link counts the query as typed
+            results = new TopDocs(new TotalHits(results.totalHits.value(), TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO),
+                    results.scoreDocs);
+        }
+        showTotalHits(results.totalHits);
+        if (!queryGuard.getWarnings().isEmpty())
+            showStatus(String.join(" ", queryGuard.getWarnings()));
+        log.info("query '{}': {} in {} ms ({} profile){}", description, results.totalHits,
+                (System.nanoTime() - start) / 1_000_000, indexProfile.name().toLowerCase(Locale.ROOT),
+                partial ? ", stopped by the time budget" : "");
+        ScoreDoc[] hits = results.scoreDocs;
+        StoredFields storedFields = searcher.storedFields();
+        Duplicates duplicates = cbxCollapse.isSelected() ? null : findDuplicates(hits, unfiltered, storedFields);
+
+        // show results in TableView
+        resultList.clear();
+
+        // paths already listed, and content hashes when duplicates are collapsed
+        HashSet<String> listed = new HashSet<>();
+        int excluded = 0;
+        for (ScoreDoc hit : hits) {
+            Document doc = storedFields.document(hit.doc);
+            String key = cbxCollapse.isSelected() ? doc.get(KEY_HASH) : doc.get(KEY_PATH);
+            if (key != null && !listed.add(key))
+                continue;
+
+            if (duplicates != null) {
+                // copies of the documents excluded by the filters, at the score of their canonical document
+                for (; excluded < duplicates.ofExcluded().size()
+                        && duplicates.ofExcluded().get(excluded).score > hit.score; excluded++) {
+                    addDuplicate(duplicates.ofExcluded().get(excluded), storedFields, listed);
+                }
+            }
+            resultList.add(newResultDoc(hit.doc, doc, hit.score));
+            if (duplicates != null) {
+                for (ScoreDoc copy : duplicates.ofHits().getOrDefault(doc.get(KEY_PATH), List.of())) {
+                    addDuplicate(copy, storedFields, listed);
+                }
+            }
+        }
+        if (duplicates != null) {
+            for (; excluded < duplicates.ofExcluded().size(); excluded++) {
+                addDuplicate(duplicates.ofExcluded().get(excluded), storedFields, listed);
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * clear the results of a search too costly to run, and tell why
+     *
+     * @param message reason shown in the status bar
+     */
+    protected void reject(String message) {
+        log.info("search rejected: {}", message);
+        resultList.clear();
+        facetTree.setRoot(null);
+        countQuery = null;
+        showTotalHits(null);
+        showStatus(message);
+        beep();
+    }
+
+
+    /**
+     * show a message in the status bar, in place of the messages of a task
+     */
+    protected void showStatus(String message) {
+        statusLabel.textProperty().unbind();
+        statusLabel.setText(message);
+    }
+
+
+    /**
+     * show the number of hits, exact or a lower bound
+     *
+     * @param totalHits total hits of the last search, null to clear
+     */
+    protected void showTotalHits(TotalHits totalHits) {
+        shownTotalHits = totalHits;
+        if (totalHits == null) {
+            hitsLabel.setText("");
+            lnkCount.setVisible(false);
+            return;
+        }
+        String count = NumberFormat.getIntegerInstance().format(totalHits.value());
+        boolean exact = totalHits.relation() == TotalHits.Relation.EQUAL_TO;
+        hitsLabel.setText(exact ? tr("Search.hits", "%s", count) : tr("Search.hitsAtLeast", "%s+", count));
+        lnkCount.setVisible(!exact);
+    }
+
+
+    /**
+     * count all hits of the last search in the background, Weight.count answers term and range queries
+     * from the index statistics without visiting the documents; a count stopped by its time budget
+     * is shown as a lower bound
+     */
+    @FXML
+    protected void onCount(ActionEvent ignoredE) {
+        // the reader is kept open until the count ends, even if a new index is opened meanwhile
+        if (countQuery == null || !indexReader.tryIncRef())
+            return;
+        Query query = countQuery;
+        IndexReader reader = indexReader;
+        QueryGuard guard = new QueryGuard(QueryGuard.COUNT_BUDGET_MILLIS);
+        Task<TotalHits> task = new Task<>() {
+            @Override
+            protected TotalHits call() throws IOException {
+                updateMessage(tr("Search.counting"));
+                long start = System.nanoTime();
+                guard.start();
+                try {
+                    IndexSearcher timed = guard.searcher(reader);
+                    int count = timed.count(query);
+                    log.info("counted {} hits in {} ms{}", count, (System.nanoTime() - start) / 1_000_000,
+                            timed.timedOut() ? ", stopped by the time budget" : "");
+                    return new TotalHits(count, timed.timedOut() ? TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO
+                            : TotalHits.Relation.EQUAL_TO);
+                } finally {
+                    guard.stop();
+                    reader.decRef();
+                }
+            }
+        };
+        task.setOnSucceeded(e -> {
+            lnkCount.setDisable(false);
+            showStatus("");
+            if (countQuery != query)
+                return; // searched again meanwhile
+            TotalHits totalHits = task.getValue();
+            if (totalHits.relation() == TotalHits.Relation.EQUAL_TO) {
+                showTotalHits(totalHits);
+            } else {
+                // the search may have found more hits than the stopped count
+                long atLeast = Math.max(totalHits.value(), (shownTotalHits != null) ? shownTotalHits.value() : 0);
+                showTotalHits(new TotalHits(atLeast, TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO));
+                showStatus(tr("QueryGuard.countStopped", "", QueryGuard.COUNT_BUDGET_MILLIS / 1000));
+            }
+        });
+        task.setOnFailed(e -> {
+            lnkCount.setDisable(false);
+            showStatus("");
+            showException(new IOException(task.getException()));
+        });
+        lnkCount.setDisable(true);
+        statusLabel.textProperty().bind(task.messageProperty());
+        statusProgress.progressProperty().bind(task.progressProperty());
+        statusProgress.visibleProperty().bind(task.runningProperty());
+
+        Thread thread = new Thread(task, "CountTask");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * save the text of the search field, new files matching it are shown after the next indexing runs
+     */
+    @FXML
+    public void onSaveSearch(ActionEvent ignoredA) {
+        String text = searchText.getText().trim();
+        if (parser == null || text.isEmpty()) {
+            beep();
+            return;
+        }
+        try {
+            parser.parse(text);
+        } catch (QueryNodeException | RuntimeException e) {
+            beep();
+            return;
+        }
+        List<String> searches = new ArrayList<>(SavedSearches.parseLines(savedSearchesProperty().get()));
+        if (!searches.contains(text)) {
+            searches.add(text);
+            savedSearchesProperty().set(String.join("\n", searches));
+            savePreferences();
+        }
+        showStatus(tr("SavedSearches.saved", "", text));
+    }
+
+
+    /**
+     * export all hits of the last search to a CSV or JSON lines file, progress is shown in the status bar
+     */
+    @FXML
+    public void onExport(ActionEvent ignoredA) {
+        if (countQuery == null)
+            return;
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(tr("ExportTask.chooseFile"));
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("CSV", "*.csv"),
+                new FileChooser.ExtensionFilter("JSON lines", "*.jsonl"));
+        File file = chooser.showSaveDialog(tbl.getScene().getWindow());
+        if (file == null)
+            return;
+
+        ExportTask export = new ExportTask(indexReader, countQuery, file.toPath());
+        export.setOnFailed(e -> showException(new IOException(export.getException())));
+        statusLabel.textProperty().bind(export.messageProperty());
+        statusProgress.progressProperty().bind(export.progressProperty());
+        statusProgress.visibleProperty().bind(export.runningProperty());
+
+        Thread thread = new Thread(export, "ExportTask");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * build a result row, numbers are read from doc values when the profile does not store them
+     *
+     * @param docId document number
+     * @param doc   stored fields of the document
+     * @param score score of the document
+     */
+    protected ResultDoc newResultDoc(int docId, Document doc, float score) throws IOException {
+        IndexableField modified = doc.getField(KEY_MODIFIED);
+        IndexableField attachments = doc.getField(KEY_ATTACHMENTS);
+        return new ResultDoc(doc,
+                (modified != null) ? modified.numericValue().longValue() : docValue(docId, KEY_MODIFIED),
+                (attachments != null) ? attachments.numericValue().intValue() : (int) docValue(docId, KEY_ATTACHMENTS),
+                score);
+    }
+
+
+    /**
+     * @return first doc value of a numeric field, 0 if the document has none
+     */
+    private long docValue(int docId, String field) throws IOException {
+        List<LeafReaderContext> leaves = indexReader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        SortedNumericDocValues values = DocValues.getSortedNumeric(leaf.reader(), field);
+        return values.advanceExact(docId - leaf.docBase) ? values.nextValue() : 0;
+    }
+
+
+    /**
+     * remember a query for the warm-up of the next session
+     */
+    protected void addRecentQuery(String text) {
+        if (text.isBlank())
+            return;
+        recentQueries.remove(text);
+        recentQueries.addFirst(text);
+        if (recentQueries.size() > MAX_RECENT_QUERIES)
+            recentQueries.removeLast();
+    }
+
+
+    /**
+     * copies of the documents found that were indexed without their text
+     *
+     * @param ofHits     copies by path of their canonical document, with its score
+     * @param ofExcluded copies of documents excluded by the filters, with the score of their canonical document,
+     *                   highest first
+     */
+    protected record Duplicates(Map<String, List<ScoreDoc>> ofHits, List<ScoreDoc> ofExcluded) {
+    }
+
+
+    /**
+     * find the copies of the documents found, that were indexed without their text, in one search.<br>
+     * A copy has its own date, folder and attachments: with filters, the copies of the documents
+     * matching the query but not the filters are also searched.
+     *
+     * @param hits         documents found
+     * @param unfiltered   query searched, without the filters
+     * @param storedFields stored fields of the searcher
+     * @return copies passing the filters
+     */
+    protected Duplicates findDuplicates(ScoreDoc[] hits, Query unfiltered, StoredFields storedFields)
+            throws IOException {
+        // score of each canonical document, by path
+        Map<String, Float> scores = new HashMap<>();
+        for (ScoreDoc hit : hits) {
+            scores.putIfAbsent(storedFields.document(hit.doc).get(KEY_PATH), hit.score);
+        }
+        Set<String> found = new HashSet<>(scores.keySet());
+        if (hasFilters()) {
+            TopDocs all = searcher.search(unfiltered,
+                    new TopScoreDocCollectorManager(maxResultsProperty().get(), TOTAL_HITS_THRESHOLD));
+            for (ScoreDoc hit : all.scoreDocs) {
+                scores.putIfAbsent(storedFields.document(hit.doc).get(KEY_PATH), hit.score);
+            }
+        }
+        scores.remove(null);
+        if (scores.isEmpty())
+            return new Duplicates(Map.of(), List.of());
+
+        List<BytesRef> paths = scores.keySet().stream().map(BytesRef::new).toList();
+        TopDocs copies = searcher.search(addFilters(new TermInSetQuery(KEY_DUPLICATE_OF, paths)),
+                maxResultsProperty().get());
+        Map<String, List<ScoreDoc>> ofHits = new HashMap<>();
+        List<ScoreDoc> ofExcluded = new ArrayList<>();
+        for (ScoreDoc copy : copies.scoreDocs) {
+            String canonical = storedFields.document(copy.doc).get(KEY_DUPLICATE_OF);
+            ScoreDoc listed = new ScoreDoc(copy.doc, scores.get(canonical));
+            if (found.contains(canonical))
+                ofHits.computeIfAbsent(canonical, k -> new ArrayList<>()).add(listed);
+            else
+                ofExcluded.add(listed);
+        }
+        ofExcluded.sort(Comparator.comparingDouble((ScoreDoc copy) -> copy.score).reversed());
+        return new Duplicates(ofHits, ofExcluded);
+    }
+
+
+    /**
+     * add to the result list a copy of a document that was indexed without its text
+     *
+     * @param copy         copy, with the score of its canonical document
+     * @param storedFields stored fields of the searcher
+     * @param listed       paths already in the result list
+     */
+    protected void addDuplicate(ScoreDoc copy, StoredFields storedFields, HashSet<String> listed) throws IOException {
+        Document doc = storedFields.document(copy.doc);
+        if (listed.add(doc.get(KEY_PATH)))
+            resultList.add(newResultDoc(copy.doc, doc, copy.score));
+    }
+
+
+    /**
+     * @return true if a facet, date or attachment filter is active
+     */
+    protected boolean hasFilters() {
+        return !filterList.isEmpty() || dateFrom.getValue() != null || dateTo.getValue() != null
+                || minAttachments.getValue() > 0;
+    }
+
+
+    /**
+     * add selected facet values, dates and attachments to the query as non-scoring filters.<br>
+     * FILTER clauses are cached by the searcher's query cache when they are reused,
+     * dates and attachments are range queries on the point fields.
+     *
+     * @param query the user query
+     * @return the filtered query
+     */
+    protected Query addFilters(Query query) {
+        if (!hasFilters())
+            return query;
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(query, BooleanClause.Occur.MUST);
+        for (DocFacets.FacetItem filter : filterList) {
+            builder.add(filter.toQuery(), BooleanClause.Occur.FILTER);
+        }
+
+        LocalDate from = dateFrom.getValue();
+        LocalDate to = dateTo.getValue();
+        if (from != null || to != null) {
+            long lower = (from == null) ? Long.MIN_VALUE : SearchQueryParser.toMillis(from);
+            long upper = (to == null) ? Long.MAX_VALUE : SearchQueryParser.toMillis(to.plusDays(1)) - 1;
+            builder.add(LongPoint.newRangeQuery(KEY_MODIFIED, lower, upper), BooleanClause.Occur.FILTER);
+        }
+
+        if (minAttachments.getValue() > 0) {
+            builder.add(IntPoint.newRangeQuery(KEY_ATTACHMENTS, minAttachments.getValue(), Integer.MAX_VALUE),
+                    BooleanClause.Occur.FILTER);
+        }
+        return builder.build();
+    }
+
+
+    /**
+     * show facet counts in the facet tree
+     *
+     * @param facets facet counts, with the months of each year
+     */
+    protected void showFacets(DocFacets.Counts facets) {
+        TreeItem<DocFacets.FacetItem> root = new TreeItem<>();
+        for (FacetResult facet : facets.dims()) {
+            TreeItem<DocFacets.FacetItem> dimItem = new TreeItem<>(DocFacets.FacetItem.of(facet));
+            dimItem.setExpanded(true);
+            for (LabelAndValue lv : facet.labelValues) {
+                if (lv.value.intValue() == 0)
+                    continue;
+                TreeItem<DocFacets.FacetItem> valueItem = new TreeItem<>(DocFacets.FacetItem.of(facet, lv));
+                if (DocFacets.DIM_DATE.equals(facet.dim)) {
+                    FacetResult months = facets.months().get(lv.label);
+                    if (months != null) {
+                        for (LabelAndValue month : months.labelValues) {
+                            valueItem.getChildren().add(new TreeItem<>(DocFacets.FacetItem.of(months, month)));
+                        }
+                    }
+                }
+                dimItem.getChildren().add(valueItem);
+            }
+            root.getChildren().add(dimItem);
+        }
+        facetTree.setRoot(root);
+    }
+
     /**
      * Makes a beep
      */
@@ -352,6 +1461,54 @@ public class LuceneFx extends Application implements Initializable {
     }
 
 
+    /**
+     * a facet value was clicked, add it to the filters and search again
+     *
+     * @param event MouseEvent
+     */
+    @FXML
+    public void onFacetClicked(MouseEvent event) {
+        TreeItem<DocFacets.FacetItem> item = facetTree.getSelectionModel().getSelectedItem();
+        if (item == null || item.getValue() == null || !item.getValue().isValue())
+            return;
+
+        Query filter = item.getValue().toQuery();
+        if (filterList.stream().noneMatch(f -> f.toQuery().equals(filter))) {
+            filterList.add(item.getValue());
+            onSearch(null);
+        }
+        event.consume();
+    }
+
+
+    /**
+     * a filter was double-clicked, remove it and search again
+     *
+     * @param event MouseEvent
+     */
+    @FXML
+    public void onFilterClicked(MouseEvent event) {
+        DocFacets.FacetItem filter = filterListView.getSelectionModel().getSelectedItem();
+        if (filter != null && event.getClickCount() >= 2) {
+            filterList.remove(filter);
+            onSearch(null);
+            event.consume();
+        }
+    }
+
+
+    /**
+     * remove all filters and search again
+     */
+    @FXML
+    public void onClearFilters(ActionEvent ignoredA) {
+        if (!filterList.isEmpty()) {
+            filterList.clear();
+            onSearch(null);
+        }
+    }
+
+
     /**
      * Opens preference dialog
      */
@@ -375,7 +1532,7 @@ public class LuceneFx extends Application implements Initializable {
             if (selection != null) {
                 //HostServices services = this.getHostServices();
                 //services.showDocument(selection.pathProperty().get()); sometimes not working !!
-                java.awt.Desktop.getDesktop().open(new File(selection.pathProperty().get()));
+                java.awt.Desktop.getDesktop().open(selection.getFile());
             }
         } catch (Exception e) {
             showException(e);
@@ -383,6 +1540,60 @@ public class LuceneFx extends Application implements Initializable {
     }
 
 
+    /**
+     * search the documents similar to the selected one, the query is built in the background:
+     * without term vectors, the file is converted again
+     */
+    @FXML
+    public void onMoreLikeThis(ActionEvent ignoredA) {
+        ResultDoc selection = tbl.getSelectionModel().getSelectedItem();
+        // the reader is kept open until the query is built, even if a new index is opened meanwhile
+        if (selection == null || similarDocs == null || !indexReader.tryIncRef())
+            return;
+        String path = selection.pathProperty().get();
+        SimilarDocs similar = similarDocs;
+        IndexReader reader = indexReader;
+        Task<Query> task = new Task<>() {
+            @Override
+            protected Query call() throws IOException {
+                updateMessage(tr("SimilarDocs.like", "", path));
+                long start = System.nanoTime();
+                try {
+                    return similar.like(path);
+                } finally {
+                    reader.decRef();
+                    log.info("more like '{}': query built in {} ms", path, (System.nanoTime() - start) / 1_000_000);
+                }
+            }
+        };
+        task.setOnSucceeded(e -> {
+            Query like = task.getValue();
+            if (like == null) {
+                showStatus(tr("SimilarDocs.unavailable", "", path));
+                beep();
+                return;
+            }
+            showStatus(tr("SimilarDocs.similar", "", path));
+            try {
+                search(like, "more like " + path);
+            } catch (IOException ex) {
+                showException(ex);
+            }
+        });
+        task.setOnFailed(e -> {
+            showStatus("");
+            showException(new IOException(task.getException()));
+        });
+        statusLabel.textProperty().bind(task.messageProperty());
+        statusProgress.progressProperty().bind(task.progressProperty());
+        statusProgress.visibleProperty().bind(task.runningProperty());
+
+        Thread thread = new Thread(task, "SimilarDocs");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
     /**
      * a line in TableView was clicked, open the document in desktop
      *
@@ -408,8 +1619,7 @@ public class LuceneFx extends Application implements Initializable {
         if (selection != null) {
             Dragboard db = tbl.startDragAndDrop(TransferMode.COPY, TransferMode.LINK);
             ClipboardContent content = new ClipboardContent();
-            File f = new File(selection.pathProperty().get());
-            content.putFiles(Collections.singletonList(f));
+            content.putFiles(Collections.singletonList(selection.getFile()));
             db.setContent(content);
             event.consume();
         }
@@ -550,12 +1760,27 @@ public class LuceneFx extends Application implements Initializable {
      * @return the controller T created by FXMLLoader, that may contain interesting results
      */
     protected <T> T loadFxmlInStage(String fxmlName, boolean resizable, Consumer<T> initAction) {
+        return loadFxmlInStage(fxmlName, resizable, true, initAction);
+    }
+
+
+    /**
+     * utility method to load fxml file in a Stage
+     *
+     * @param fxmlName   name of fxml file to load (without extension)
+     * @param resizable  true if window must be resizable
+     * @param modal      true to block the other windows until the stage is closed, false to return once shown
+     * @param initAction extra action to be performed on the controller
+     * @return the controller T created by FXMLLoader
+     */
+    protected <T> T loadFxmlInStage(String fxmlName, boolean resizable, boolean modal, Consumer<T> initAction) {
         try {
             FXMLLoader fxmlLoader = new FXMLLoader(LuceneFx.class.getResource(fxmlName + ".fxml"));
 
             Stage stage = new Stage();
-            stage.initModality(Modality.APPLICATION_MODAL);
+            stage.initModality(modal ? Modality.APPLICATION_MODAL : Modality.NONE);
             stage.setScene(new Scene(fxmlLoader.load()));
+            stage.getScene().addEventFilter(InputEvent.ANY, e -> IndexThrottle.userActivity());
             stage.setTitle(tr(fxmlName + ".stageName"));
             stage.setResizable(resizable);
             //stage.getIcons().add(I18n.getImage("app.icon"));
@@ -564,7 +1789,10 @@ public class LuceneFx extends Application implements Initializable {
             T controller = fxmlLoader.getController();
             initAction.accept(controller);
 
-            stage.showAndWait();
+            if (modal)
+                stage.showAndWait();
+            else
+                stage.show();
 
             return controller;
 
@@ -642,12 +1870,19 @@ public class LuceneFx extends Application implements Initializable {
             return score;
         }
 
+        /**
+         * @return the file of this document, or the archive or mailbox containing it
+         */
+        public File getFile() {
+            return new File(ContainerExtractor.containerPath(path.get()));
+        }
+
 
-        public ResultDoc(Document doc, float score) {
+        public ResultDoc(Document doc, long modified, int attachments, float score) {
             this.path = new SimpleStringProperty(this, "path", doc.get("path"));
             this.title = new SimpleStringProperty(this, "title", doc.get("subject"));
-            this.attachments = new SimpleIntegerProperty(this, "attachments", doc.getField("attachments").numericValue().intValue());
-            LocalDateTime modifiedLocalDateTime = new Date(doc.getField("modified").numericValue().longValue()).toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
+            this.attachments = new SimpleIntegerProperty(this, "attachments", attachments);
+            LocalDateTime modifiedLocalDateTime = new Date(modified).toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
             this.modified = new SimpleObjectProperty<>(this, "modified", modifiedLocalDateTime);
             this.score = new SimpleFloatProperty(this, "score", score);
         }
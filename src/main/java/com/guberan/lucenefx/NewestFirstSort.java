@@ -0,0 +1,231 @@
+package com.guberan.lucenefx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Files of the document directory ordered by modification time, newest first, ties by path.<br>
+ * The files are sorted in memory by runs of a bounded size. When a tree has more files than a run,
+ * each run is written sorted to a temporary file, and the runs are merged while the files are read,
+ * so memory does not depend on the number of files. The order can be iterated several times.
+ */
+public class NewestFirstSort implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(NewestFirstSort.class);
+
+    // files sorted in memory before a run is written, about 20 MB of paths
+    public static final int DEFAULT_RUN_SIZE = 100_000;
+
+    public static final Comparator<Entry> ORDER = Comparator.comparingLong(Entry::modified).reversed()
+            .thenComparing(Entry::path);
+
+    private final int runSize;
+    private List<Entry> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    // runs opened by the iterations, closed before they are deleted
+    private final List<DataInputStream> opened = new ArrayList<>();
+    private Path tempDir;
+    // file system of the document directory, paths are sorted as strings
+    private FileSystem fileSystem = FileSystems.getDefault();
+    private boolean sorted;
+    private long size;
+
+    /**
+     * a file and its modification time at the time of the walk
+     *
+     * @param modified modification time, in milliseconds
+     * @param path     path of the file
+     */
+    public record Entry(long modified, String path) {
+    }
+
+    /**
+     * NewestFirstSort
+     *
+     * @param runSize files sorted in memory, a larger tree is sorted in temporary files
+     */
+    public NewestFirstSort(int runSize) {
+        this.runSize = runSize;
+    }
+
+    /**
+     * add a file, before the first iteration
+     *
+     * @param file     file of the walk
+     * @param modified modification time, in milliseconds
+     */
+    public void add(Path file, long modified) throws IOException {
+        if (sorted)
+            throw new IllegalStateException("files added after the sort");
+        fileSystem = file.getFileSystem();
+        buffer.add(new Entry(modified, file.toString()));
+        size++;
+        if (buffer.size() >= runSize)
+            writeRun();
+    }
+
+    /**
+     * @return number of files added
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return files, newest first
+     */
+    public Iterator<Path> iterator() throws IOException {
+        Iterator<Entry> entries = entries();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Path next() {
+                return fileSystem.getPath(entries.next().path());
+            }
+        };
+    }
+
+    /**
+     * @param entry file of the sort
+     * @return path of the file
+     */
+    public Path path(Entry entry) {
+        return fileSystem.getPath(entry.path());
+    }
+
+    /**
+     * @return files and their modification time, newest first
+     */
+    public Iterator<Entry> entries() throws IOException {
+        if (!sorted) {
+            if (!runs.isEmpty() && !buffer.isEmpty())
+                writeRun();
+            buffer.sort(ORDER);
+            sorted = true;
+            if (!runs.isEmpty())
+                log.info("{} files sorted by modification time in {} runs", size, runs.size());
+        }
+        if (runs.isEmpty())
+            return buffer.iterator();
+        return new Merge();
+    }
+
+    /**
+     * write the buffer as a sorted run
+     */
+    private void writeRun() throws IOException {
+        buffer.sort(ORDER);
+        if (tempDir == null)
+            tempDir = Files.createTempDirectory("LuceneFx-sort");
+        Path run = tempDir.resolve("run-" + runs.size());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            for (Entry entry : buffer) {
+                out.writeLong(entry.modified());
+                out.writeUTF(entry.path());
+            }
+        }
+        runs.add(run);
+        buffer = new ArrayList<>();
+    }
+
+    /**
+     * delete the runs
+     */
+    @Override
+    public void close() throws IOException {
+        for (DataInputStream in : opened) {
+            in.close();
+        }
+        opened.clear();
+        buffer = new ArrayList<>();
+        runs.clear();
+        if (tempDir != null) {
+            IndexDirectories.deleteRecursively(tempDir);
+            tempDir = null;
+        }
+    }
+
+    /**
+     * next entry of a run
+     */
+    private final class RunReader {
+        private final DataInputStream in;
+        private Entry head;
+
+        RunReader(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+            opened.add(in);
+        }
+
+        /**
+         * @return false at the end of the run, which is then closed
+         */
+        boolean advance() throws IOException {
+            try {
+                head = new Entry(in.readLong(), in.readUTF());
+                return true;
+            } catch (EOFException e) {
+                in.close();
+                opened.remove(in);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * merge of the runs, the newest head first
+     */
+    private class Merge implements Iterator<Entry> {
+        private final PriorityQueue<RunReader> heads = new PriorityQueue<>(Comparator.comparing(r -> r.head, ORDER));
+
+        Merge() throws IOException {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.advance())
+                    heads.add(reader);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Entry next() {
+            RunReader reader = heads.poll();
+            if (reader == null)
+                throw new NoSuchElementException();
+            Entry next = reader.head;
+            try {
+                if (reader.advance())
+                    heads.add(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next;
+        }
+    }
+}
@@ -17,7 +17,6 @@
 package com.guberan.lucenefx;
 
 import org.apache.lucene.analysis.*;
-import org.apache.lucene.analysis.icu.ICUFoldingFilter;
 import org.apache.lucene.analysis.standard.StandardTokenizer;
 
 import java.io.IOException;
@@ -123,7 +122,7 @@ public final class NoAccentAnalyzer extends StopwordAnalyzerBase {
     protected TokenStreamComponents createComponents(final String fieldName) {
         final StandardTokenizer src = new StandardTokenizer();
         src.setMaxTokenLength(maxTokenLength);
-        TokenStream tok = new ICUFoldingFilter(src); // replace LowerCaseFilter + ASCIIFoldingFilter
+        TokenStream tok = new FastFoldingFilter(src); // ICUFoldingFilter, replace LowerCaseFilter + ASCIIFoldingFilter
         tok = new StopFilter(tok, stopwords);
         return new TokenStreamComponents(reader -> {
             src.setMaxTokenLength(NoAccentAnalyzer.this.maxTokenLength);
@@ -0,0 +1,215 @@
+package com.guberan.lucenefx;
+
+import org.apache.tika.detect.DefaultEncodingDetector;
+import org.apache.tika.detect.EncodingDetector;
+import org.apache.tika.metadata.Metadata;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Plain text files (text, logs, CSV, markdown, source code) indexed without Tika.<br>
+ * The file is read into a reused direct buffer, its charset detected from a sample (byte order mark,
+ * valid UTF-8, or the encoding detectors of Tika), and the characters are decoded from the buffer into
+ * the analyzer through a small buffer: the text is never held as a String. As with Tika, only the first
+ * Startup.MAX_TEXT_CHARS characters are indexed. A file with NUL bytes in its sample is not plain text,
+ * whatever its name, and is converted by Tika.<br>
+ * The file is not memory mapped: a mapped file truncated while it is read (a rotated log) raises an
+ * InternalError, which IndexWriter takes as tragic, and a mapping keeps the file locked on Windows.
+ */
+public class PlainText {
+
+    // larger files are converted by Tika, reading them from disk
+    public static final int MAX_READ = 16 << 20;
+
+    private static final Set<String> EXTENSIONS = Set.of(
+            "txt", "text", "log", "csv", "tsv", "md", "markdown", "rst",
+            "java", "kt", "scala", "groovy", "gradle", "c", "h", "cc", "cpp", "hpp", "cs", "go", "rs", "swift",
+            "py", "rb", "pl", "php", "js", "ts", "css", "sh", "bat", "ps1", "sql", "r",
+            "properties", "ini", "cfg", "conf", "yaml", "yml", "json", "toml");
+
+    private static final int SAMPLE_BYTES = 64 * 1024;
+    private static final int BUFFER_CHARS = 8192;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private static EncodingDetector encodingDetector;
+
+    private PlainText() {
+    }
+
+    /**
+     * @return true if the name of the file is the one of a plain text format
+     */
+    public static boolean hasTextExtension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * read a text file of at most MAX_READ bytes
+     *
+     * @param buffer buffer of the previous file, reused if it is large enough, or null
+     * @return buffer holding the contents, from position 0 to limit, to pass to the next call
+     */
+    public static ByteBuffer read(Path file, long size, ByteBuffer buffer) throws IOException {
+        if (buffer == null || buffer.capacity() < size)
+            buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_BYTES, Integer.highestOneBit((int) size - 1) << 1));
+        buffer.clear().limit((int) size);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until the size seen by the walk, or the end of a file that shrank
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * @param contents contents of a file, the buffer position is not modified
+     * @return reader decoding the first Startup.MAX_TEXT_CHARS characters, null if the contents are not plain text
+     */
+    public static Reader reader(ByteBuffer contents) throws IOException {
+        ByteBuffer text = contents.duplicate();
+        Charset charset = detectCharset(text);
+        return (charset == null) ? null : new BufferReader(text, charset);
+    }
+
+    /**
+     * detect the charset of a text, and skip its byte order mark
+     *
+     * @return charset, null for binary contents
+     */
+    static Charset detectCharset(ByteBuffer text) throws IOException {
+        Charset bom = byteOrderMark(text);
+        if (bom != null)
+            return bom;
+
+        ByteBuffer sample = text.slice(text.position(), Math.min(text.remaining(), SAMPLE_BYTES));
+        for (int i = 0; i < sample.limit(); i++) {
+            if (sample.get(i) == 0)
+                return null;
+        }
+        if (isUtf8(sample.duplicate(), sample.limit() < text.remaining()))
+            return StandardCharsets.UTF_8;
+
+        // legacy 8 bit charset, as detected by Tika for its text parser
+        Metadata metadata = new Metadata();
+        Charset charset = encodingDetector().detect(ReadAhead.stream(sample), metadata);
+        return (charset != null) ? charset : Charset.forName("windows-1252");
+    }
+
+    private static synchronized EncodingDetector encodingDetector() {
+        if (encodingDetector == null)
+            encodingDetector = new DefaultEncodingDetector();
+        return encodingDetector;
+    }
+
+    /**
+     * @return charset of a byte order mark, which is skipped, or null
+     */
+    private static Charset byteOrderMark(ByteBuffer text) {
+        int p = text.position();
+        if (text.remaining() >= 3 && text.get(p) == (byte) 0xEF && text.get(p + 1) == (byte) 0xBB
+                && text.get(p + 2) == (byte) 0xBF) {
+            text.position(p + 3);
+            return StandardCharsets.UTF_8;
+        }
+        if (text.remaining() >= 2 && text.get(p) == (byte) 0xFE && text.get(p + 1) == (byte) 0xFF) {
+            text.position(p + 2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if (text.remaining() >= 2 && text.get(p) == (byte) 0xFF && text.get(p + 1) == (byte) 0xFE) {
+            text.position(p + 2);
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    /**
+     * @param sample    first bytes of the text
+     * @param truncated true if the text continues after the sample, which may end in the middle of a character
+     * @return true if the sample is valid UTF-8 (ASCII included)
+     */
+    private static boolean isUtf8(ByteBuffer sample, boolean truncated) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(BUFFER_CHARS);
+        while (true) {
+            CoderResult result = decoder.decode(sample, out, !truncated);
+            if (result.isError())
+                return false;
+            if (result.isUnderflow())
+                return true;
+            out.clear();
+        }
+    }
+
+    /**
+     * characters decoded from a byte buffer as they are read
+     */
+    private static class BufferReader extends Reader {
+        private final ByteBuffer in;
+        private final CharsetDecoder decoder;
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_CHARS).flip();
+        private boolean flushing;
+        private boolean eof;
+        // characters left before the limit of Tika
+        private int remaining = Startup.MAX_TEXT_CHARS;
+
+        BufferReader(ByteBuffer in, Charset charset) {
+            this.in = in;
+            // as Tika, invalid bytes are replaced
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (remaining == 0 || (!chars.hasRemaining() && !fill()))
+                return -1;
+            int n = Math.min(Math.min(len, chars.remaining()), remaining);
+            chars.get(cbuf, off, n);
+            remaining -= n;
+            return n;
+        }
+
+        /**
+         * decode the next characters
+         *
+         * @return false at the end of the text
+         */
+        private boolean fill() {
+            chars.clear();
+            while (chars.position() == 0 && !eof) {
+                if (!flushing && decoder.decode(in, chars, true).isUnderflow())
+                    flushing = true;
+                if (flushing && decoder.flush(chars).isUnderflow())
+                    eof = true;
+            }
+            chars.flip();
+            return chars.hasRemaining();
+        }
+
+        @Override
+        public void close() {
+            eof = true;
+            chars.clear().flip();
+        }
+    }
+}
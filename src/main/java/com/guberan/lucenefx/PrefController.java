@@ -4,6 +4,10 @@ import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.SpinnerValueFactory;
+import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
@@ -23,7 +27,45 @@ public class PrefController implements Initializable {
     @FXML
     protected TextField txtIndex;
     @FXML
+    protected TextField txtSnapshot;
+    @FXML
     protected CheckBox cbxAutoUpdate;
+    @FXML
+    protected ChoiceBox<IndexProfile> cbxProfile;
+    @FXML
+    protected Spinner<Double> spnRecency;
+    @FXML
+    protected Spinner<Double> spnAttachments;
+    @FXML
+    protected Spinner<Double> spnFolder;
+    @FXML
+    protected TextField txtFolderWeights;
+    @FXML
+    protected CheckBox cbxTermVectors;
+    @FXML
+    protected CheckBox cbxBackground;
+    @FXML
+    protected Spinner<Double> spnReadLimit;
+    @FXML
+    protected Spinner<Integer> spnWorkers;
+    @FXML
+    protected TextField txtReplica;
+    @FXML
+    protected Spinner<Integer> spnReadAhead;
+    @FXML
+    protected CheckBox cbxNewestFirst;
+    @FXML
+    protected TextField txtInclude;
+    @FXML
+    protected TextField txtExclude;
+    @FXML
+    protected Spinner<Integer> spnMaxFileSize;
+    @FXML
+    protected CheckBox cbxSkipBinaries;
+    @FXML
+    protected CheckBox cbxNameOnly;
+    @FXML
+    protected TextArea txtSavedSearches;
 
     private boolean resultOK;
 
@@ -35,7 +77,40 @@ public class PrefController implements Initializable {
     public void initialize(URL location, ResourceBundle resources) {
         txtDoc.setText(LuceneFx.getApp().docPathProperty().get().toString());
         txtIndex.setText(LuceneFx.getApp().indexPathProperty().get().toString());
+        txtSnapshot.setText(LuceneFx.getApp().snapshotPathProperty().get().toString());
         cbxAutoUpdate.setSelected(LuceneFx.getApp().reindexProperty().get());
+        cbxProfile.getItems().setAll(IndexProfile.values());
+        cbxProfile.setValue(LuceneFx.getApp().indexProfileProperty().get());
+        spnRecency.setValueFactory(boostFactory(LuceneFx.getApp().recencyBoostProperty().get()));
+        spnAttachments.setValueFactory(boostFactory(LuceneFx.getApp().attachmentsBoostProperty().get()));
+        spnFolder.setValueFactory(boostFactory(LuceneFx.getApp().folderBoostProperty().get()));
+        txtFolderWeights.setText(LuceneFx.getApp().folderWeightsProperty().get());
+        cbxTermVectors.setSelected(LuceneFx.getApp().termVectorsProperty().get());
+        cbxBackground.setSelected(LuceneFx.getApp().backgroundIndexingProperty().get());
+        spnReadLimit.setValueFactory(new SpinnerValueFactory.DoubleSpinnerValueFactory(1.0, 1000.0,
+                LuceneFx.getApp().readLimitProperty().get(), 5.0));
+        spnReadLimit.disableProperty().bind(cbxBackground.selectedProperty().not());
+        spnWorkers.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 64,
+                LuceneFx.getApp().indexWorkersProperty().get()));
+        txtReplica.setText(LuceneFx.getApp().replicaPathProperty().get().toString());
+        spnReadAhead.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(0, 4096,
+                LuceneFx.getApp().readAheadProperty().get(), 16));
+        cbxNewestFirst.setSelected(LuceneFx.getApp().newestFirstProperty().get());
+        txtInclude.setText(LuceneFx.getApp().includeProperty().get());
+        txtExclude.setText(LuceneFx.getApp().excludeProperty().get());
+        spnMaxFileSize.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(0, 1 << 20,
+                LuceneFx.getApp().maxFileSizeProperty().get(), 64));
+        cbxSkipBinaries.setSelected(LuceneFx.getApp().skipBinariesProperty().get());
+        cbxNameOnly.setSelected(LuceneFx.getApp().nameOnlyProperty().get());
+        txtSavedSearches.setText(LuceneFx.getApp().savedSearchesProperty().get());
+    }
+
+
+    /**
+     * @return spinner values for a boost weight, 0 disables the boost
+     */
+    private static SpinnerValueFactory<Double> boostFactory(double value) {
+        return new SpinnerValueFactory.DoubleSpinnerValueFactory(0.0, 10.0, value, 0.1);
     }
 
 
@@ -62,6 +137,24 @@ public class PrefController implements Initializable {
     }
 
 
+    /**
+     * onChooseSnapshot
+     */
+    @FXML
+    public void onChooseSnapshot(ActionEvent ignoredA) {
+        chooseDir(txtSnapshot, LuceneFx.tr("Pref.chooseSnapshotDir"));
+    }
+
+
+    /**
+     * onChooseReplica
+     */
+    @FXML
+    public void onChooseReplica(ActionEvent ignoredA) {
+        chooseDir(txtReplica, LuceneFx.tr("Pref.chooseReplicaDir"));
+    }
+
+
     /**
      * chooseDir
      *
@@ -113,7 +206,27 @@ public class PrefController implements Initializable {
         // save prefs;
         LuceneFx.getApp().docPathProperty().set(Paths.get(txtDoc.getText()));
         LuceneFx.getApp().indexPathProperty().set(Paths.get(txtIndex.getText()));
+        LuceneFx.getApp().snapshotPathProperty().set(Paths.get(txtSnapshot.getText()));
         LuceneFx.getApp().reindexProperty().set(cbxAutoUpdate.isSelected());
+        LuceneFx.getApp().indexProfileProperty().set(cbxProfile.getValue());
+        LuceneFx.getApp().recencyBoostProperty().set(spnRecency.getValue());
+        LuceneFx.getApp().attachmentsBoostProperty().set(spnAttachments.getValue());
+        LuceneFx.getApp().folderBoostProperty().set(spnFolder.getValue());
+        LuceneFx.getApp().folderWeightsProperty().set(txtFolderWeights.getText());
+        LuceneFx.getApp().termVectorsProperty().set(cbxTermVectors.isSelected());
+        LuceneFx.getApp().backgroundIndexingProperty().set(cbxBackground.isSelected());
+        LuceneFx.getApp().readLimitProperty().set(spnReadLimit.getValue());
+        LuceneFx.getApp().indexWorkersProperty().set(spnWorkers.getValue());
+        LuceneFx.getApp().replicaPathProperty().set(Paths.get(txtReplica.getText()));
+        LuceneFx.getApp().readAheadProperty().set(spnReadAhead.getValue());
+        LuceneFx.getApp().newestFirstProperty().set(cbxNewestFirst.isSelected());
+        LuceneFx.getApp().includeProperty().set(txtInclude.getText());
+        LuceneFx.getApp().excludeProperty().set(txtExclude.getText());
+        LuceneFx.getApp().maxFileSizeProperty().set(spnMaxFileSize.getValue());
+        LuceneFx.getApp().skipBinariesProperty().set(cbxSkipBinaries.isSelected());
+        LuceneFx.getApp().nameOnlyProperty().set(cbxNameOnly.isSelected());
+        LuceneFx.getApp().savedSearchesProperty().set(String.join("\n",
+                SavedSearches.parseLines(txtSavedSearches.getText())));
         LuceneFx.getApp().savePreferences();
 
         resultOK = true;
@@ -71,6 +71,8 @@ public class ProgressController implements Initializable {
         this.task = task;
         task.setOnSucceeded(this::onSuccess);
         task.setOnFailed(this::onFailed);
+        // also cancelled when the index is closed while the dialog is open
+        task.setOnCancelled(e -> close());
 
         progressBar.progressProperty().bind(task.progressProperty());
         lblInfo.textProperty().bind(task.messageProperty());
@@ -0,0 +1,220 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.QueryTimeout;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.AutomatonQuery;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Cost limits of a search, checked before it runs.<br>
+ * Wildcard, prefix, regular expression and term range queries are expanded to the words of the index
+ * within half of the time budget: up to MAX_EXPANSIONS words, the query is replaced by the constant score
+ * query of these words; with more words, only the DEGRADED_TERMS most frequent ones are searched; a query
+ * expanding to no word within the time is rejected. Fuzzy queries keep their own limit of 50 words.
+ * The rest of the budget stops the collection of the hits, the hits found so far are then shown.
+ */
+public class QueryGuard implements QueryTimeout {
+    private static final Logger log = LoggerFactory.getLogger(QueryGuard.class);
+
+    public static final long BUDGET_MILLIS = 2_000;
+    // exact count of the hits of a search, run in the background
+    public static final long COUNT_BUDGET_MILLIS = 30_000;
+    // words of a multi-term query searched exactly
+    public static final int MAX_EXPANSIONS = 10_000;
+    // most frequent words searched when a query matches more
+    public static final int DEGRADED_TERMS = 1024;
+    // effort to compile a wildcard or a regular expression, see SearchQueryParser
+    public static final int DETERMINIZE_WORK_LIMIT = 2_000;
+
+    // words enumerated between two checks of the time
+    private static final int CHECK_TERMS = 256;
+
+    private final long budgetNanos;
+    private volatile boolean armed;
+    private volatile long deadline;
+    private final List<String> warnings = new ArrayList<>();
+
+    /**
+     * a search that cannot run within the limits, with a message for the user
+     */
+    public static class RejectedException extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    private record TermFreq(BytesRef term, int docFreq) {
+    }
+
+    /**
+     * QueryGuard
+     *
+     * @param budgetMillis time of a search, expansion of its queries and collection of its hits
+     */
+    public QueryGuard(long budgetMillis) {
+        this.budgetNanos = budgetMillis * 1_000_000;
+    }
+
+    /**
+     * start the time budget of a search, the warnings of the previous one are cleared
+     */
+    public void start() {
+        warnings.clear();
+        deadline = System.nanoTime() + budgetNanos;
+        armed = true;
+    }
+
+    /**
+     * end of the search, later searches of the searchers are not stopped
+     */
+    public void stop() {
+        armed = false;
+    }
+
+    @Override
+    public boolean shouldExit() {
+        return armed && System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * @return searcher stopping the collection of the hits when the budget is spent, see IndexSearcher.timedOut()
+     */
+    public IndexSearcher searcher(IndexReader reader) {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setTimeout(this);
+        return searcher;
+    }
+
+    /**
+     * @return messages of the limits applied to the current search
+     */
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * add a message of a limit applied to the current search
+     */
+    public void warn(String warning) {
+        warnings.add(warning);
+    }
+
+    /**
+     * expand the multi-term queries of a query, within half of the budget
+     *
+     * @param query  parsed query
+     * @param reader reader searched
+     * @return query with its multi-term queries replaced by the words they match
+     * @throws RejectedException if a multi-term query cannot be expanded within the time
+     */
+    public Query check(Query query, IndexReader reader) throws IOException {
+        long expansionDeadline = System.nanoTime() + budgetNanos / 2;
+        return check(query, reader, expansionDeadline);
+    }
+
+    private Query check(Query query, IndexReader reader, long expansionDeadline) throws IOException {
+        if (query instanceof AutomatonQuery automaton)
+            return expand(automaton, reader, expansionDeadline);
+        if (query instanceof BooleanQuery bool) {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setMinimumNumberShouldMatch(bool.getMinimumNumberShouldMatch());
+            for (BooleanClause clause : bool.clauses()) {
+                builder.add(check(clause.query(), reader, expansionDeadline), clause.occur());
+            }
+            return builder.build();
+        }
+        if (query instanceof BoostQuery boost)
+            return new BoostQuery(check(boost.getQuery(), reader, expansionDeadline), boost.getBoost());
+        if (query instanceof ConstantScoreQuery constant)
+            return new ConstantScoreQuery(check(constant.getQuery(), reader, expansionDeadline));
+        return query;
+    }
+
+    /**
+     * @return constant score query of the words matched by a wildcard, prefix, regular expression or range
+     */
+    private Query expand(AutomatonQuery query, IndexReader reader, long expansionDeadline) throws IOException {
+        String field = query.getField();
+        String text = query.toString(LuceneFx.KEY_CONTENTS);
+        Terms terms = MultiTerms.getTerms(reader, field);
+        if (terms == null)
+            return new TermInSetQuery(field, List.of());
+
+        // words in the order of the index, then the most frequent ones once there are too many
+        List<TermFreq> all = new ArrayList<>();
+        PriorityQueue<TermFreq> top = null;
+        long count = 0;
+        boolean timedOut = false;
+        TermsEnum termsEnum = query.getTermsEnum(terms);
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            count++;
+            if (top == null) {
+                all.add(new TermFreq(BytesRef.deepCopyOf(term), termsEnum.docFreq()));
+                if (all.size() > MAX_EXPANSIONS) {
+                    top = new PriorityQueue<>(Comparator.comparingInt(TermFreq::docFreq));
+                    for (TermFreq termFreq : all) {
+                        offer(top, termFreq);
+                    }
+                    all = null;
+                }
+            } else {
+                int docFreq = termsEnum.docFreq();
+                if (docFreq > top.peek().docFreq())
+                    offer(top, new TermFreq(BytesRef.deepCopyOf(term), docFreq));
+            }
+            if (count % CHECK_TERMS == 0 && System.nanoTime() - expansionDeadline > 0) {
+                timedOut = true;
+                break;
+            }
+        }
+
+        List<BytesRef> searched = ((top == null) ? all.stream() : top.stream()).map(TermFreq::term).toList();
+        if (!timedOut && top == null) {
+            log.debug("'{}' expanded to {} words", text, count);
+            return new TermInSetQuery(field, searched);
+        }
+        if (searched.isEmpty())
+            throw new RejectedException(LuceneFx.tr("QueryGuard.tooSlow", "", text));
+
+        NumberFormat fmt = NumberFormat.getIntegerInstance();
+        warn(timedOut ? LuceneFx.tr("QueryGuard.expansionStopped", "", text, fmt.format(count), fmt.format(searched.size()))
+                : LuceneFx.tr("QueryGuard.degraded", "", text, fmt.format(count), fmt.format(searched.size())));
+        log.info("'{}' matches {}{} words, {} are searched", text, timedOut ? "at least " : "", count, searched.size());
+        return new TermInSetQuery(field, searched);
+    }
+
+    /**
+     * keep the DEGRADED_TERMS most frequent words
+     */
+    private static void offer(PriorityQueue<TermFreq> top, TermFreq termFreq) {
+        if (top.size() < DEGRADED_TERMS) {
+            top.add(termFreq);
+        } else if (termFreq.docFreq() > top.peek().docFreq()) {
+            top.poll();
+            top.add(termFreq);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.guberan.lucenefx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Read-ahead of the files to index, for slow storage such as network shares: the next files of the walk
+ * are read by virtual threads while the current one is converted, so that the latency of the reads
+ * overlaps with text extraction.<br>
+ * A file is read once, into a pooled direct buffer (no copy through a temporary buffer of the JDK), and is
+ * then hashed, detected and converted from memory instead of being read again from the share for each step.
+ * The number of files read ahead follows the ratio of the read time to the conversion time, within a byte
+ * budget. Larger files, and all files when the budget is 0, are read from disk by the conversion.
+ */
+public class ReadAhead implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ReadAhead.class);
+
+    public static final int DEFAULT_BUDGET_MB = 64;
+
+    private static final int MAX_DEPTH = 64;
+    // weight of the last file in the average read and conversion times
+    private static final double SMOOTHING = 0.1;
+    // files larger than this part of the budget are not read ahead
+    private static final int MAX_FILE_FRACTION = 4;
+    private static final int BUFFER_ROUNDING = 64 << 10;
+
+    private final long budget;
+    private final ExecutorService readers;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    // released buffers, reused for the next files
+    private final List<ByteBuffer> pool = new ArrayList<>();
+    private long pooledBytes;
+    private long queuedBytes;
+
+    // average times per file, in nanoseconds
+    private volatile double readNanos;
+    private double convertNanos;
+    private int depth = 1;
+
+    private long files;
+    private long bytes;
+    private long waitNanos;
+
+    /**
+     * a file of the walk, with its contents if it is read ahead
+     */
+    public final class Entry {
+        private final Path file;
+        private final BasicFileAttributes attrs;
+        private final CompletableFuture<ByteBuffer> contents;
+        private long started;
+
+        private Entry(Path file, BasicFileAttributes attrs, CompletableFuture<ByteBuffer> contents) {
+            this.file = file;
+            this.attrs = attrs;
+            this.contents = contents;
+        }
+
+        public Path file() {
+            return file;
+        }
+
+        public BasicFileAttributes attrs() {
+            return attrs;
+        }
+
+        /**
+         * wait for the contents of the file
+         *
+         * @return contents, from position 0 to limit, null if the file was not read ahead or could not be read
+         */
+        public ByteBuffer contents() {
+            if (contents == null)
+                return null;
+            long start = System.nanoTime();
+            try {
+                return contents.get().duplicate();
+            } catch (ExecutionException e) {
+                // read again from disk by the conversion, which reports the error
+                log.debug("Could not read ahead {}", file, e.getCause());
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                long waited = System.nanoTime() - start;
+                waitNanos += waited;
+                started += waited;
+            }
+        }
+    }
+
+    /**
+     * ReadAhead
+     *
+     * @param budget bytes read ahead at most, 0 to read the files during the conversion
+     */
+    public ReadAhead(long budget) {
+        this.budget = budget;
+        this.readers = (budget > 0) ? Executors.newVirtualThreadPerTaskExecutor() : null;
+    }
+
+    /**
+     * add the next file of the walk, its reading starts if it fits in the budget
+     *
+     * @param read false for a file indexed without its contents, which is not read
+     */
+    public void add(Path file, BasicFileAttributes attrs, boolean read) {
+        long size = attrs.size();
+        CompletableFuture<ByteBuffer> contents = null;
+        if (read && readers != null && size <= budget / MAX_FILE_FRACTION) {
+            contents = CompletableFuture.supplyAsync(() -> read(file, size), readers);
+            queuedBytes += size;
+        }
+        queue.add(new Entry(file, attrs, contents));
+    }
+
+    /**
+     * @param all true at the end of the walk, to get the remaining files
+     * @return next file to convert, null if the files in the queue should still be read ahead
+     */
+    public Entry next(boolean all) {
+        if (queue.isEmpty() || (!all && queue.size() <= depth && queuedBytes <= budget))
+            return null;
+        Entry entry = queue.peek();
+        entry.started = System.nanoTime();
+        return entry;
+    }
+
+    /**
+     * the file returned by next() is converted, its buffer is reused
+     */
+    public void done(Entry entry) {
+        queue.remove(entry);
+        long converted = System.nanoTime() - entry.started;
+        convertNanos = (files == 0) ? converted : convertNanos + SMOOTHING * (converted - convertNanos);
+        files++;
+        if (entry.contents != null) {
+            queuedBytes -= entry.attrs.size();
+            ByteBuffer buffer = entry.contents.getNow(null);
+            if (buffer != null) {
+                bytes += buffer.limit();
+                release(buffer);
+            }
+        }
+
+        // enough files read ahead to cover the time to read one, the reads run in parallel
+        if (readers != null && convertNanos > 0)
+            depth = (int) Math.max(1, Math.min(MAX_DEPTH, Math.ceil(readNanos / convertNanos) + 1));
+    }
+
+    /**
+     * read a file in a virtual thread
+     */
+    private ByteBuffer read(Path file, long size) {
+        long start = System.nanoTime();
+        ByteBuffer buffer = acquire((int) size);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until the size seen by the walk, or the end of a file that shrank
+            }
+        } catch (IOException e) {
+            release(buffer);
+            throw new RuntimeException(e);
+        }
+        buffer.flip();
+        double nanos = System.nanoTime() - start;
+        readNanos = (readNanos == 0) ? nanos : readNanos + SMOOTHING * (nanos - readNanos);
+        return buffer;
+    }
+
+    /**
+     * @return buffer from the pool, or a new one, with size bytes remaining
+     */
+    private synchronized ByteBuffer acquire(int size) {
+        ByteBuffer best = null;
+        for (ByteBuffer buffer : pool) {
+            if (buffer.capacity() >= size && buffer.capacity() <= 2L * size + BUFFER_ROUNDING
+                    && (best == null || buffer.capacity() < best.capacity()))
+                best = buffer;
+        }
+        if (best != null) {
+            pool.remove(best);
+            pooledBytes -= best.capacity();
+        } else {
+            int capacity = (int) Math.min(Integer.MAX_VALUE, (size + BUFFER_ROUNDING - 1L) / BUFFER_ROUNDING * BUFFER_ROUNDING);
+            best = ByteBuffer.allocateDirect(Math.max(capacity, BUFFER_ROUNDING));
+        }
+        return best.clear().limit(size);
+    }
+
+    private synchronized void release(ByteBuffer buffer) {
+        // the pool holds at most the budget, other buffers are freed by the GC
+        if (pooledBytes + buffer.capacity() <= budget) {
+            pool.add(buffer);
+            pooledBytes += buffer.capacity();
+        }
+    }
+
+    /**
+     * @param contents contents of a file read ahead
+     * @return stream over contents, supporting mark/reset for type detection
+     */
+    public static InputStream stream(ByteBuffer contents) {
+        ByteBuffer buffer = contents.duplicate();
+        return new InputStream() {
+            private int mark;
+
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0)
+                    return 0;
+                if (!buffer.hasRemaining())
+                    return -1;
+                int n = Math.min(len, buffer.remaining());
+                buffer.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) {
+                int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+                buffer.position(buffer.position() + skipped);
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return buffer.remaining();
+            }
+
+            @Override
+            public boolean markSupported() {
+                return true;
+            }
+
+            @Override
+            public synchronized void mark(int limit) {
+                mark = buffer.position();
+            }
+
+            @Override
+            public synchronized void reset() {
+                buffer.position(mark);
+            }
+        };
+    }
+
+    /**
+     * stop reading ahead, the files still in the queue are not converted
+     */
+    @Override
+    public void close() {
+        for (Entry entry : queue) {
+            if (entry.contents != null)
+                entry.contents.cancel(false);
+        }
+        queue.clear();
+        if (readers != null)
+            readers.shutdownNow();
+    }
+
+    /**
+     * @return statistics of the read-ahead, for the indexing metrics
+     */
+    @Override
+    public String toString() {
+        if (readers == null)
+            return "off";
+        return String.format("%d files, %d MB read ahead (budget %d MB), depth %d, read %.1f ms, conversion %.1f ms per file, waited %d ms",
+                files, bytes >> 20, budget >> 20, depth, readNanos / 1e6, convertNanos / 1e6, waitNanos / 1_000_000);
+    }
+}
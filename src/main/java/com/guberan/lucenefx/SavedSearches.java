@@ -0,0 +1,424 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.SynonymQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOSupplier;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Saved searches, matched against each new document as it is indexed.<br>
+ * The document is indexed alone in a {@link MemoryIndex}, and only the searches that may match it are run:
+ * each search is registered under a few terms that any matching document contains (one required clause
+ * of a conjunction, every clause of a disjunction), and the terms of the document select the candidates.
+ * Searches without such terms (wildcards, fuzzy, ranges) are run against every new document.<br>
+ * The terms of the contents read by the searches are returned with their positions, so that the copies of a
+ * document are matched without converting them again.
+ */
+public class SavedSearches {
+    private static final Logger log = LoggerFactory.getLogger(SavedSearches.class);
+
+    // alerts kept for a run, the others are only counted
+    public static final int MAX_ALERTS = 1000;
+
+    private final List<Search> searches = new ArrayList<>();
+    // field -> term -> searches registered under the term
+    private final Map<String, Map<BytesRef, List<Search>>> anchored = new HashMap<>();
+    private final List<Search> unanchored = new ArrayList<>();
+    // fields of the documents read by the searches
+    private final Set<String> fields = new HashSet<>();
+    // terms of the contents read by the searches, and automata of the terms read by their multi-term queries
+    private final Set<BytesRef> contentsTerms = new HashSet<>();
+    private final List<ByteRunAutomaton> contentsAutomata = new ArrayList<>();
+
+    private final MemoryIndex memory = new MemoryIndex();
+    private final BitSet candidates = new BitSet();
+    private final List<Alert> alerts = new ArrayList<>();
+    private long alertCount;
+    private long documents;
+    private long searched;
+
+    /**
+     * a saved search matched by a new document
+     *
+     * @param search text of the saved search
+     * @param path   path of the document
+     */
+    public record Alert(String search, String path) {
+    }
+
+    private record Search(int id, String text, Query query) {
+    }
+
+    /**
+     * terms of the contents of a document read by the searches, in the order of their positions
+     *
+     * @param terms     terms
+     * @param positions position of each term
+     */
+    public record ContentsTerms(String[] terms, int[] positions) {
+
+        /**
+         * @return token stream of the terms at their positions, in place of the analyzed contents
+         */
+        TokenStream tokenStream() {
+            return new TokenStream() {
+                private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+                private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+                private int next;
+
+                @Override
+                public boolean incrementToken() {
+                    if (next == terms.length)
+                        return false;
+                    clearAttributes();
+                    termAtt.setEmpty().append(terms[next]);
+                    posIncAtt.setPositionIncrement((next == 0) ? positions[0] + 1 : positions[next] - positions[next - 1]);
+                    next++;
+                    return true;
+                }
+
+                @Override
+                public void reset() throws IOException {
+                    super.reset();
+                    next = 0;
+                }
+            };
+        }
+    }
+
+    /**
+     * SavedSearches
+     *
+     * @param texts        saved searches, as typed in the search field; invalid ones are ignored
+     * @param phraseSearch false if the index has no positions, see IndexProfile
+     */
+    public SavedSearches(List<String> texts, boolean phraseSearch) {
+        SearchQueryParser parser = new SearchQueryParser(Startup.analyzer());
+        parser.setPhraseSearch(phraseSearch);
+        for (String text : texts) {
+            try {
+                register(text, parser.parse(text));
+            } catch (QueryNodeException | RuntimeException e) {
+                log.warn("Invalid saved search '{}' ignored", text);
+            }
+        }
+        log.info("{} saved searches, {} checked against every new document", searches.size(), unanchored.size());
+    }
+
+    /**
+     * @param text lines of saved searches
+     * @return saved searches, without blank lines
+     */
+    public static List<String> parseLines(String text) {
+        return text.lines().map(String::trim).filter(line -> !line.isEmpty()).distinct().toList();
+    }
+
+    private void register(String text, Query query) {
+        Search search = new Search(searches.size(), text, query);
+        searches.add(search);
+        query.visit(new QueryVisitor() {
+            @Override
+            public boolean acceptField(String field) {
+                fields.add(field);
+                return true;
+            }
+
+            @Override
+            public void consumeTerms(Query query, Term... terms) {
+                for (Term term : terms) {
+                    if (LuceneFx.KEY_CONTENTS.equals(term.field()))
+                        contentsTerms.add(term.bytes());
+                }
+            }
+
+            @Override
+            public void consumeTermsMatching(Query query, String field, Supplier<ByteRunAutomaton> automaton) {
+                if (LuceneFx.KEY_CONTENTS.equals(field))
+                    contentsAutomata.add(automaton.get());
+            }
+        });
+
+        List<Term> terms = anchors(query);
+        if (terms == null) {
+            unanchored.add(search);
+            return;
+        }
+        for (Term term : terms) {
+            anchored.computeIfAbsent(term.field(), f -> new HashMap<>())
+                    .computeIfAbsent(term.bytes(), b -> new ArrayList<>()).add(search);
+        }
+    }
+
+    /**
+     * terms such that a document matching the query contains at least one of them
+     *
+     * @return terms, empty if no document matches, null if a document may match without any known term
+     */
+    static List<Term> anchors(Query query) {
+        if (query instanceof TermQuery term)
+            return List.of(term.getTerm());
+        // e.g. only stop words: never run
+        if (query instanceof MatchNoDocsQuery)
+            return List.of();
+        if (query instanceof PhraseQuery phrase) {
+            // every term is required, the longest one is likely the rarest
+            return (phrase.getTerms().length == 0) ? null : List.of(Collections.max(List.of(phrase.getTerms()),
+                    Comparator.comparingInt(t -> t.bytes().length)));
+        }
+        if (query instanceof SynonymQuery synonyms)
+            return synonyms.getTerms().isEmpty() ? null : synonyms.getTerms();
+        if (query instanceof BoostQuery boost)
+            return anchors(boost.getQuery());
+        if (query instanceof ConstantScoreQuery constant)
+            return anchors(constant.getQuery());
+        if (query instanceof BooleanQuery bool)
+            return anchors(bool);
+        return null;
+    }
+
+    private static List<Term> anchors(BooleanQuery bool) {
+        List<Term> best = null;
+        boolean required = false;
+        List<Term> any = new ArrayList<>();
+        boolean anyAnchored = true;
+        for (BooleanClause clause : bool.clauses()) {
+            switch (clause.occur()) {
+                case MUST, FILTER -> {
+                    // one required clause is enough, the one with the fewest terms
+                    required = true;
+                    List<Term> terms = anchors(clause.query());
+                    if (terms != null && (best == null || terms.size() < best.size()))
+                        best = terms;
+                }
+                case SHOULD -> {
+                    List<Term> terms = anchors(clause.query());
+                    if (terms == null)
+                        anyAnchored = false;
+                    else
+                        any.addAll(terms);
+                }
+                case MUST_NOT -> {
+                }
+            }
+        }
+        if (required)
+            return best;
+        // without required clauses, a match contains one of the optional clauses
+        return anyAnchored ? any : null;
+    }
+
+    /**
+     * @return true if there is no saved search
+     */
+    public boolean isEmpty() {
+        return searches.isEmpty();
+    }
+
+    /**
+     * match a new document against the saved searches
+     *
+     * @param path         path of the document
+     * @param doc          indexed fields of the document, its contents field is skipped
+     * @param contents     text of the document, a new reader, null if the document has no contents
+     * @param contentsType field type of the contents
+     * @param analyzer     analyzer of the index writer
+     * @return terms of the contents read by the searches, to match the copies of the document
+     */
+    public ContentsTerms match(String path, Document doc, IOSupplier<Reader> contents, FieldType contentsType,
+                               Analyzer analyzer) throws IOException {
+        addFields(doc, analyzer);
+        if (contents != null && fields.contains(LuceneFx.KEY_CONTENTS)) {
+            Reader reader = contents.get();
+            if (reader != null)
+                memory.addField(new Field(LuceneFx.KEY_CONTENTS, reader, contentsType), analyzer);
+        }
+        run(path);
+        return contentsTerms();
+    }
+
+    /**
+     * match a new copy of a document against the saved searches, with the contents terms of the document
+     *
+     * @param path     path of the copy
+     * @param doc      indexed fields of the copy
+     * @param contents terms returned by the match of the document, null to match the fields of the copy only
+     * @param analyzer analyzer of the index writer
+     */
+    public void match(String path, Document doc, ContentsTerms contents, Analyzer analyzer) throws IOException {
+        addFields(doc, analyzer);
+        if (contents != null && contents.terms().length > 0)
+            memory.addField(LuceneFx.KEY_CONTENTS, contents.tokenStream());
+        run(path);
+    }
+
+    /**
+     * index the fields read by the searches in the memory index, except the contents
+     */
+    private void addFields(Document doc, Analyzer analyzer) {
+        documents++;
+        memory.reset();
+        for (IndexableField field : doc) {
+            if (!fields.contains(field.name()) || LuceneFx.KEY_CONTENTS.equals(field.name()))
+                continue;
+            if (field.fieldType().indexOptions() != IndexOptions.NONE || field.fieldType().pointDimensionCount() > 0)
+                memory.addField(field, analyzer);
+        }
+    }
+
+    /**
+     * run the searches that may match the document of the memory index
+     */
+    private void run(String path) throws IOException {
+        selectCandidates();
+        for (Search search : unanchored) {
+            candidates.set(search.id());
+        }
+        for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+            Search search = searches.get(id);
+            searched++;
+            if (memory.search(search.query()) > 0) {
+                alertCount++;
+                if (alerts.size() < MAX_ALERTS)
+                    alerts.add(new Alert(search.text(), path));
+            }
+        }
+    }
+
+    /**
+     * @return terms of the contents of the memory index read by the searches, with their positions
+     */
+    private ContentsTerms contentsTerms() throws IOException {
+        LeafReader reader = (LeafReader) memory.createSearcher().getIndexReader();
+        Terms terms = reader.terms(LuceneFx.KEY_CONTENTS);
+        if (terms == null || (contentsTerms.isEmpty() && contentsAutomata.isEmpty()))
+            return new ContentsTerms(new String[0], new int[0]);
+        List<String> read = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        TermsEnum termsEnum = terms.iterator();
+        PostingsEnum postings = null;
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            if (!contentsTerms.contains(term) && !matchesAutomaton(term))
+                continue;
+            String text = term.utf8ToString();
+            postings = termsEnum.postings(postings, PostingsEnum.POSITIONS);
+            postings.nextDoc();
+            for (int i = postings.freq(); i > 0; i--) {
+                read.add(text);
+                // no positions in the compact profile, which has no phrase search
+                positions.add(Math.max(0, postings.nextPosition()));
+            }
+        }
+        Integer[] order = new Integer[read.size()];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, Comparator.comparingInt(positions::get));
+        String[] sortedTerms = new String[order.length];
+        int[] sortedPositions = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedTerms[i] = read.get(order[i]);
+            sortedPositions[i] = positions.get(order[i]);
+        }
+        return new ContentsTerms(sortedTerms, sortedPositions);
+    }
+
+    private boolean matchesAutomaton(BytesRef term) {
+        for (ByteRunAutomaton automaton : contentsAutomata) {
+            if (automaton.run(term.bytes, term.offset, term.length))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * mark the searches registered under a term of the document, walking the smaller of the two term sets
+     */
+    private void selectCandidates() throws IOException {
+        candidates.clear();
+        LeafReader reader = (LeafReader) memory.createSearcher().getIndexReader();
+        for (Map.Entry<String, Map<BytesRef, List<Search>>> field : anchored.entrySet()) {
+            Terms terms = reader.terms(field.getKey());
+            if (terms == null)
+                continue;
+            Map<BytesRef, List<Search>> registered = field.getValue();
+            TermsEnum termsEnum = terms.iterator();
+            if (registered.size() < terms.size()) {
+                for (Map.Entry<BytesRef, List<Search>> term : registered.entrySet()) {
+                    if (termsEnum.seekExact(term.getKey()))
+                        mark(term.getValue());
+                }
+            } else {
+                for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                    List<Search> matching = registered.get(term);
+                    if (matching != null)
+                        mark(matching);
+                }
+            }
+        }
+    }
+
+    private void mark(List<Search> matching) {
+        for (Search search : matching) {
+            candidates.set(search.id());
+        }
+    }
+
+    /**
+     * @return alerts of the documents matched so far, at most MAX_ALERTS
+     */
+    public List<Alert> getAlerts() {
+        return alerts;
+    }
+
+    /**
+     * @return number of alerts, including those not kept
+     */
+    public long getAlertCount() {
+        return alertCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d searches, %d new documents, %d searches run, %d alerts", searches.size(),
+                documents, searched, alertCount);
+    }
+}
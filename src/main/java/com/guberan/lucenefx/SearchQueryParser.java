@@ -0,0 +1,259 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.queryparser.flexible.core.nodes.FieldQueryNode;
+import org.apache.lucene.queryparser.flexible.core.nodes.FieldableNode;
+import org.apache.lucene.queryparser.flexible.core.nodes.QueryNode;
+import org.apache.lucene.queryparser.flexible.core.processors.QueryNodeProcessorImpl;
+import org.apache.lucene.queryparser.flexible.core.processors.QueryNodeProcessorPipeline;
+import org.apache.lucene.queryparser.flexible.core.util.UnescapedCharSequence;
+import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.apache.lucene.queryparser.flexible.standard.builders.StandardQueryBuilder;
+import org.apache.lucene.queryparser.flexible.standard.builders.StandardQueryTreeBuilder;
+import org.apache.lucene.queryparser.flexible.standard.config.PointsConfig;
+import org.apache.lucene.queryparser.flexible.standard.nodes.RegexpQueryNode;
+import org.apache.lucene.queryparser.flexible.standard.nodes.TermRangeQueryNode;
+import org.apache.lucene.queryparser.flexible.standard.nodes.WildcardQueryNode;
+import org.apache.lucene.queryparser.flexible.standard.processors.MultiTermRewriteMethodProcessor;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.RegexpQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.automaton.RegExp;
+
+import java.text.NumberFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Query parser of the search field.<br>
+ * A {@link StandardQueryParser} that maps "modified" and "attachments" to point queries.
+ * Dates can be written as yyyy, yyyy-MM or yyyy-MM-dd, e.g. {@code modified:[2023 TO 2024]}
+ * or {@code modified:2024-03}, and cover the whole period.
+ */
+public class SearchQueryParser extends StandardQueryParser {
+
+    // false if the index has no positions, see IndexProfile
+    private boolean phraseSearch = true;
+
+    /**
+     * SearchQueryParser
+     *
+     * @param analyzer analyzer used for text fields
+     */
+    public SearchQueryParser(Analyzer analyzer) {
+        super(analyzer);
+
+        NumberFormat longFormat = NumberFormat.getIntegerInstance(Locale.ROOT);
+        longFormat.setGroupingUsed(false);
+        setPointsConfigMap(Map.of(
+                LuceneFx.KEY_MODIFIED, new PointsConfig(longFormat, Long.class),
+                LuceneFx.KEY_ATTACHMENTS, new PointsConfig(longFormat, Integer.class)));
+
+        // dates must be converted to milliseconds before the points processors run
+        ((QueryNodeProcessorPipeline) getQueryNodeProcessor()).add(0, new DateProcessor());
+
+        // leading wildcards without a field are routed to the file name fields, see FileNameFields
+        setAllowLeadingWildcard(true);
+        ((QueryNodeProcessorPipeline) getQueryNodeProcessor()).add(0, new DefaultFieldProcessor());
+
+        // wildcards and regular expressions are compiled with a bounded effort, see QueryGuard
+        StandardQueryTreeBuilder builder = (StandardQueryTreeBuilder) getQueryBuilder();
+        builder.setBuilder(WildcardQueryNode.class, (StandardQueryBuilder) node -> {
+            WildcardQueryNode wildcard = (WildcardQueryNode) node;
+            return new WildcardQuery(new Term(wildcard.getFieldAsString(), wildcard.getTextAsString()),
+                    QueryGuard.DETERMINIZE_WORK_LIMIT, rewriteMethod(node));
+        });
+        builder.setBuilder(RegexpQueryNode.class, (StandardQueryBuilder) node -> {
+            RegexpQueryNode regexp = (RegexpQueryNode) node;
+            return new RegexpQuery(new Term(regexp.getFieldAsString(), regexp.textToBytesRef()), RegExp.ALL, 0,
+                    RegexpQuery.DEFAULT_PROVIDER, QueryGuard.DETERMINIZE_WORK_LIMIT, rewriteMethod(node));
+        });
+    }
+
+    /**
+     * @return rewrite method of a multi-term query node, constant score by default
+     */
+    private static MultiTermQuery.RewriteMethod rewriteMethod(QueryNode node) {
+        Object method = node.getTag(MultiTermRewriteMethodProcessor.TAG_ID);
+        return (method instanceof MultiTermQuery.RewriteMethod rewrite) ? rewrite
+                : MultiTermQuery.CONSTANT_SCORE_BLENDED_REWRITE;
+    }
+
+    /**
+     * parse a query on the "contents" field
+     *
+     * @param query query string
+     * @return Lucene query
+     */
+    public Query parse(String query) throws QueryNodeException {
+        // no default field here: terms without a field get it from DefaultFieldProcessor
+        Query q = FileNameFields.rewrite(parse(query, null));
+        return phraseSearch ? q : withoutPhrases(q);
+    }
+
+    /**
+     * @param phraseSearch false to search phrases as all of their words, for indexes without positions
+     */
+    public void setPhraseSearch(boolean phraseSearch) {
+        this.phraseSearch = phraseSearch;
+    }
+
+    /**
+     * replace phrase queries on the contents by the conjunction of their terms
+     */
+    static Query withoutPhrases(Query query) {
+        if (query instanceof PhraseQuery phrase && LuceneFx.KEY_CONTENTS.equals(phrase.getField())) {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (Term term : phrase.getTerms()) {
+                builder.add(new TermQuery(term), BooleanClause.Occur.MUST);
+            }
+            return builder.build();
+        }
+        if (query instanceof BooleanQuery bool) {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setMinimumNumberShouldMatch(bool.getMinimumNumberShouldMatch());
+            for (BooleanClause clause : bool.clauses()) {
+                builder.add(withoutPhrases(clause.query()), clause.occur());
+            }
+            return builder.build();
+        }
+        if (query instanceof BoostQuery boost)
+            return new BoostQuery(withoutPhrases(boost.getQuery()), boost.getBoost());
+        return query;
+    }
+
+    /**
+     * @param text yyyy, yyyy-MM or yyyy-MM-dd
+     * @return first day of the period, or null if text is not a date
+     */
+    static LocalDate parsePeriodStart(String text) {
+        try {
+            return switch (text.length()) {
+                case 4 -> LocalDate.of(Integer.parseInt(text), 1, 1);
+                case 7 -> LocalDate.parse(text + "-01");
+                case 10 -> LocalDate.parse(text);
+                default -> null;
+            };
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return first day after the period
+     */
+    static LocalDate periodEnd(String text, LocalDate start) {
+        return switch (text.length()) {
+            case 4 -> start.plusYears(1);
+            case 7 -> start.plusMonths(1);
+            default -> start.plusDays(1);
+        };
+    }
+
+    /**
+     * @return local date in epoch milliseconds
+     */
+    static long toMillis(LocalDate date) {
+        return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Sets the field of the terms written without one: "name" for a term starting with a wildcard,
+     * e.g. {@code *.pdf}, "contents" otherwise. A field written in the query is kept.
+     */
+    static class DefaultFieldProcessor extends QueryNodeProcessorImpl {
+
+        @Override
+        protected QueryNode preProcessNode(QueryNode node) {
+            if (node instanceof FieldableNode fieldable && fieldable.getField() == null)
+                fieldable.setField(isLeadingWildcard(node) ? FileNameFields.NAME : LuceneFx.KEY_CONTENTS);
+            return node;
+        }
+
+        @Override
+        protected QueryNode postProcessNode(QueryNode node) {
+            return node;
+        }
+
+        @Override
+        protected List<QueryNode> setChildrenOrder(List<QueryNode> children) {
+            return children;
+        }
+
+        private static boolean isLeadingWildcard(QueryNode node) {
+            if (node.getClass() != FieldQueryNode.class)
+                return false;
+            CharSequence text = ((FieldQueryNode) node).getText();
+            return text.length() > 0 && (text.charAt(0) == WildcardQuery.WILDCARD_STRING
+                    || text.charAt(0) == WildcardQuery.WILDCARD_CHAR)
+                    && !(text instanceof UnescapedCharSequence unescaped && unescaped.wasEscaped(0));
+        }
+    }
+
+    /**
+     * Converts dates of the "modified" field to milliseconds.
+     * Inclusive upper bounds are moved to the last millisecond of their period
+     * and single dates are expanded to a range covering the period.
+     */
+    static class DateProcessor extends QueryNodeProcessorImpl {
+
+        @Override
+        protected QueryNode preProcessNode(QueryNode node) {
+            if (node instanceof TermRangeQueryNode range && isDateField(range.getField())) {
+                FieldQueryNode lower = range.getLowerBound();
+                FieldQueryNode upper = range.getUpperBound();
+
+                LocalDate start = parsePeriodStart(lower.getTextAsString());
+                if (start != null) {
+                    long millis = toMillis(range.isLowerInclusive() ? start : periodEnd(lower.getTextAsString(), start));
+                    lower.setText(String.valueOf(range.isLowerInclusive() ? millis : millis - 1));
+                }
+
+                start = parsePeriodStart(upper.getTextAsString());
+                if (start != null) {
+                    long millis = toMillis(range.isUpperInclusive() ? periodEnd(upper.getTextAsString(), start) : start);
+                    upper.setText(String.valueOf(range.isUpperInclusive() ? millis - 1 : millis));
+                }
+            }
+            return node;
+        }
+
+        @Override
+        protected QueryNode postProcessNode(QueryNode node) {
+            if (node.getClass() == FieldQueryNode.class && isDateField(((FieldQueryNode) node).getField())
+                    && !(node.getParent() instanceof TermRangeQueryNode)) {
+                FieldQueryNode field = (FieldQueryNode) node;
+                LocalDate start = parsePeriodStart(field.getTextAsString());
+                if (start != null) {
+                    long end = toMillis(periodEnd(field.getTextAsString(), start)) - 1;
+                    return new TermRangeQueryNode(
+                            new FieldQueryNode(field.getField(), String.valueOf(toMillis(start)), field.getBegin(), field.getEnd()),
+                            new FieldQueryNode(field.getField(), String.valueOf(end), field.getBegin(), field.getEnd()),
+                            true, true);
+                }
+            }
+            return node;
+        }
+
+        @Override
+        protected List<QueryNode> setChildrenOrder(List<QueryNode> children) {
+            return children;
+        }
+
+        private static boolean isDateField(CharSequence field) {
+            return field != null && LuceneFx.KEY_MODIFIED.contentEquals(field);
+        }
+    }
+}
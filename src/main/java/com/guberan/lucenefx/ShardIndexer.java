@@ -0,0 +1,385 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sharded build of a new index: the files of the document directory are split into shards by the
+ * hash of their path, so that a large folder is shared by all the shards; each shard is indexed by
+ * its own JVM into a separate directory, and the shards are then combined by {@link IndexTask}
+ * with {@code IndexWriter.addIndexes}. Each worker walks the whole directory and converts its files.<br>
+ * Shards are written next to the index, in {@code <index>.shards/shard-<n>}. A shard already
+ * complete is not indexed again, so shards can also be built on other machines sharing the
+ * file system (with the same paths), by running this class:
+ * <pre>
+ * java -cp LuceneFx.jar com.guberan.lucenefx.ShardIndexer docPath shardRoot shard shards [profile [termVectors [indexPath]]]
+ * </pre>
+ * Identical files in different shards are indexed with their text in each shard.<br>
+ * The workers of a background run are throttled by the {@link IndexThrottle} of the parent process,
+ * which writes their state on their standard input.
+ */
+public class ShardIndexer {
+    private static final Logger log = LoggerFactory.getLogger(ShardIndexer.class);
+
+    // lines written by the workers on their standard output
+    private static final String PROGRESS = "@shard progress ";
+    private static final String ERROR = "@shard error ";
+    // system property of the read-ahead budget of a worker
+    static final String READ_AHEAD_PROPERTY = "lucenefx.readAhead";
+
+    private static final long MB = 1L << 20;
+    private static final long MIN_WORKER_HEAP = 256 * MB;
+    private static final long POLL_MILLIS = 250;
+
+    private final Path docPath;
+    private final Path indexPath;
+    private final IndexProfile profile;
+    private final boolean termVectors;
+    private final List<String> options;
+    private final IndexThrottle throttle;
+    private final int shards;
+    private final Path shardRoot;
+
+    private final long[] processed;
+    private final long[] files;
+    private final List<IndexTask.IndexingError> errors = new ArrayList<>();
+    // set before the workers are destroyed, which closes their output
+    private volatile boolean stopped;
+
+    /**
+     * progress of the workers
+     */
+    public interface Progress {
+        /**
+         * @param processed files processed by all the workers
+         * @param files     files of all the shards, as far as counted
+         * @param running   number of workers still running
+         */
+        void update(long processed, long files, int running);
+    }
+
+    /**
+     * ShardIndexer
+     *
+     * @param docPath     document directory
+     * @param indexPath   index directory, null or empty for a memory index (shards in a temporary directory)
+     * @param profile     profile of the index
+     * @param termVectors true to store the term vectors of the contents
+     * @param options     java options of the workers: filter, features and limits of the task
+     * @param throttle    throttle of the task, which decides the state of the workers
+     * @param shards      number of shards, and of worker processes
+     */
+    public ShardIndexer(Path docPath, Path indexPath, IndexProfile profile, boolean termVectors, List<String> options,
+                        IndexThrottle throttle, int shards) throws IOException {
+        this.docPath = docPath;
+        this.indexPath = (indexPath == null || indexPath.toString().isEmpty()) ? null : indexPath;
+        this.profile = profile;
+        this.termVectors = termVectors;
+        this.options = options;
+        this.throttle = throttle;
+        this.shards = shards;
+        this.shardRoot = (this.indexPath == null) ? Files.createTempDirectory("LuceneFx-shards") : shardRoot(indexPath);
+        this.processed = new long[shards];
+        this.files = new long[shards];
+    }
+
+    /**
+     * @param indexPath index directory
+     * @return directory of the shards of indexPath, skipped when indexing documents
+     */
+    public static Path shardRoot(Path indexPath) {
+        return indexPath.resolveSibling(indexPath.getFileName() + ".shards");
+    }
+
+    /**
+     * @param docPath document directory
+     * @param file    a file of docPath
+     * @param shards  number of shards
+     * @return shard of file
+     */
+    public static int shardOf(Path docPath, Path file, int shards) {
+        return Math.floorMod(docPath.relativize(file).toString().hashCode(), shards);
+    }
+
+    /**
+     * index the shards in worker processes, shards already complete are kept
+     *
+     * @param cancelled true if the run was cancelled, the workers are stopped and checkpoint their shard
+     * @param progress  progress of the workers
+     * @return directories of the shards, null if cancelled or if a worker failed
+     */
+    public List<Directory> run(BooleanSupplier cancelled, Progress progress) throws IOException, InterruptedException {
+        List<Process> workers = new ArrayList<>();
+        List<Directory> shardDirs = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                Path shardPath = shardRoot.resolve("shard-" + shard);
+                Files.createDirectories(shardPath);
+                shardDirs.add(FSDirectory.open(shardPath));
+                if (isComplete(shardDirs.get(shard), shard)) {
+                    log.info("shard {}/{} of '{}' already complete", shard, shards, docPath);
+                    workers.add(null);
+                } else {
+                    workers.add(start(shard, shardPath));
+                }
+            }
+
+            throttle.watchWorkers(workers.stream().filter(p -> p != null).toList());
+            String[] states = new String[shards];
+            int running;
+            do {
+                sendStates(workers, states);
+                Thread.sleep(POLL_MILLIS);
+                if (cancelled.getAsBoolean()) {
+                    // workers commit a checkpoint on termination, and resume from it next time
+                    stop(workers);
+                    for (Process p : workers) {
+                        if (p != null)
+                            p.waitFor();
+                    }
+                    close(shardDirs);
+                    return null;
+                }
+                running = (int) workers.stream().filter(p -> p != null && p.isAlive()).count();
+                progress.update(sum(processed), sum(files), running);
+            } while (running > 0);
+
+            for (int shard = 0; shard < shards; shard++) {
+                Process p = workers.get(shard);
+                if (p != null && (p.exitValue() != 0 || !isComplete(shardDirs.get(shard), shard))) {
+                    log.error("worker of shard {}/{} failed with exit code {}", shard, shards, p.exitValue());
+                    close(shardDirs);
+                    return null;
+                }
+            }
+            return shardDirs;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            stop(workers);
+            close(shardDirs);
+            throw e;
+        }
+    }
+
+    /**
+     * write the throttle state of the running workers that changed on their standard input
+     *
+     * @param states states last written to each worker
+     */
+    private void sendStates(List<Process> workers, String[] states) {
+        int rank = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            Process p = workers.get(shard);
+            if (p == null || !p.isAlive())
+                continue;
+            String state = throttle.workerState(rank++);
+            if (state.equals(states[shard]))
+                continue;
+            try {
+                p.getOutputStream().write((state + "\n").getBytes(StandardCharsets.UTF_8));
+                p.getOutputStream().flush();
+                states[shard] = state;
+            } catch (IOException e) {
+                // the worker is exiting
+                log.debug("Could not write the state of shard {}", shard, e);
+            }
+        }
+    }
+
+    private void stop(List<Process> workers) {
+        stopped = true;
+        workers.stream().filter(p -> p != null && p.isAlive()).forEach(Process::destroy);
+    }
+
+    /**
+     * start the worker process of a shard, its output is read in a background thread
+     */
+    private Process start(int shard, Path shardPath) throws IOException {
+        // the workers share the memory of the machine
+        long memory = (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os)
+                ? os.getTotalMemorySize() : Runtime.getRuntime().maxMemory() * shards;
+        long heap = Math.max(MIN_WORKER_HEAP, memory / 2 / shards);
+
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx" + heap / MB + "m"));
+        command.addAll(options);
+        command.addAll(List.of(
+                "-cp", System.getProperty("java.class.path"),
+                ShardIndexer.class.getName(),
+                docPath.toString(), shardRoot.toString(), Integer.toString(shard), Integer.toString(shards),
+                profile.name(), Boolean.toString(termVectors)));
+        if (indexPath != null)
+            command.add(indexPath.toString());
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        log.info("shard {}/{} of '{}' indexed by process {} into {}", shard, shards, docPath, process.pid(), shardPath);
+
+        Thread reader = new Thread(() -> readOutput(shard, process), "ShardIndexer-" + shard);
+        reader.setDaemon(true);
+        reader.start();
+        return process;
+    }
+
+    /**
+     * read the progress and the errors of a worker, other lines are its log
+     */
+    private void readOutput(int shard, Process process) {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(PROGRESS)) {
+                    String[] counts = line.substring(PROGRESS.length()).split(" ");
+                    processed[shard] = Long.parseLong(counts[0]);
+                    files[shard] = Long.parseLong(counts[1]);
+                } else if (line.startsWith(ERROR)) {
+                    String[] error = line.substring(ERROR.length()).split("\t", 2);
+                    synchronized (errors) {
+                        errors.add(new IndexTask.IndexingError(Path.of(error[0]),
+                                new IOException(error.length > 1 ? error[1] : "")));
+                    }
+                } else {
+                    log.debug("shard {}: {}", shard, line);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!stopped)
+                log.warn("Could not read the output of shard {}", shard, e);
+        }
+    }
+
+    /**
+     * @return true if dir holds the complete index of shard, with the same settings
+     */
+    private boolean isComplete(Directory dir, int shard) throws IOException {
+        if (!DirectoryReader.indexExists(dir))
+            return false;
+        Map<String, String> data = SegmentInfos.readLatestCommit(dir).getUserData();
+        return Boolean.parseBoolean(data.get(IndexTask.COMMIT_COMPLETE))
+                && docPath.toString().equals(data.get(IndexTask.COMMIT_DOC_PATH))
+                && (shard + "/" + shards).equals(data.get(IndexTask.COMMIT_SHARD))
+                && profile.name().equals(data.get(IndexProfile.COMMIT_PROFILE))
+                && Boolean.toString(termVectors).equals(data.get(SimilarDocs.COMMIT_TERM_VECTORS));
+    }
+
+    /**
+     * @return documents that could not be indexed by the workers
+     */
+    public List<IndexTask.IndexingError> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    /**
+     * @return files processed by the workers
+     */
+    public long getProcessed() {
+        return sum(processed);
+    }
+
+    /**
+     * delete the shards, once combined into the index
+     */
+    public void deleteShards() throws IOException {
+        IndexDirectories.deleteRecursively(shardRoot);
+    }
+
+    private static void close(List<Directory> dirs) throws IOException {
+        for (Directory dir : dirs) {
+            dir.close();
+        }
+    }
+
+    private static long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * worker process: index one shard
+     *
+     * @param args docPath shardRoot shard shards [profile [termVectors [indexPath]]]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: ShardIndexer docPath shardRoot shard shards [profile [termVectors [indexPath]]]");
+            System.exit(2);
+        }
+        Path docPath = Path.of(args[0]);
+        int shard = Integer.parseInt(args[2]);
+        int shards = Integer.parseInt(args[3]);
+        IndexProfile profile = IndexProfile.of(args.length > 4 ? args[4] : "");
+        Path indexPath = (args.length > 6) ? Path.of(args[6]) : null;
+        Path shardPath = Path.of(args[1]).resolve("shard-" + shard);
+        Files.createDirectories(shardPath);
+
+        List<IndexTask.IndexingError> errors;
+        try (Directory dir = FSDirectory.open(shardPath)) {
+            IndexTask task = new IndexTask(docPath, indexPath, dir, profile) {
+                @Override
+                protected void updateProgress(long workDone, long max) {
+                    System.out.println(PROGRESS + workDone + " " + max);
+                }
+
+                @Override
+                protected void updateMessage(String message) {
+                    // progress lines only
+                }
+            };
+            task.setShard(shard, shards);
+            task.setTermVectors(args.length > 5 && Boolean.parseBoolean(args[5]));
+            task.setFilter(IndexFilter.fromSystemProperties());
+            task.setFeatures(DocFeatures.fromSystemProperties());
+            task.setThrottle(IndexThrottle.fromSystemProperties());
+            task.setReadAhead(Long.getLong(READ_AHEAD_PROPERTY, (long) ReadAhead.DEFAULT_BUDGET_MB << 20));
+
+            // stopped by the parent process: commit a checkpoint before exiting
+            Thread hook = new Thread(() -> {
+                try {
+                    task.cancel();
+                } catch (RuntimeException e) {
+                    // no FX toolkit in a worker, the task is cancelled before Task notifies the GUI
+                }
+                try {
+                    task.awaitClose();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(hook);
+
+            errors = task.call();
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // stopped while committing the last documents, the hook waits for the writer
+            }
+            System.out.println(PROGRESS + task.getProcessed() + " " + task.getFileCount());
+        }
+
+        for (IndexTask.IndexingError error : errors) {
+            System.out.println(ERROR + error.file + "\t" + String.valueOf(error.exc.getMessage()).replace('\n', ' '));
+        }
+        System.exit(0);
+    }
+}
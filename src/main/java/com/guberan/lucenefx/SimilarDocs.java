@@ -0,0 +1,141 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.queries.mlt.MoreLikeThis;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+
+/**
+ * "More like this" search: the most significant words of a document, searched in the other documents.<br>
+ * The words are read from the term vectors of the contents when the index has them (see the preferences),
+ * otherwise the file is converted again with Tika; an entry of an archive or a mailbox needs the term vectors,
+ * the whole container would be extracted again. The query may be built in a background thread.
+ */
+public class SimilarDocs {
+    private static final Logger log = LoggerFactory.getLogger(SimilarDocs.class);
+
+    // commit user data key, true if the contents have term vectors
+    public static final String COMMIT_TERM_VECTORS = "termVectors";
+
+    // words of the query, the most significant by tf-idf, and words too common to describe a document
+    private static final int MAX_QUERY_TERMS = 25;
+    private static final int MAX_DOC_FREQ_PCT = 50;
+
+    private final IndexSearcher searcher;
+    private final MoreLikeThis mlt;
+
+    /**
+     * SimilarDocs
+     *
+     * @param searcher searcher of the opened index
+     * @param analyzer analyzer of the contents, for documents without term vectors
+     */
+    public SimilarDocs(IndexSearcher searcher, Analyzer analyzer) throws IOException {
+        this.searcher = searcher;
+        mlt = new MoreLikeThis(searcher.getIndexReader());
+        mlt.setFieldNames(new String[]{LuceneFx.KEY_CONTENTS});
+        mlt.setAnalyzer(analyzer);
+        mlt.setMaxQueryTerms(MAX_QUERY_TERMS);
+        mlt.setMaxDocFreqPct(MAX_DOC_FREQ_PCT);
+        mlt.setBoost(true);
+    }
+
+    /**
+     * @param base         field type of the contents for the index profile
+     * @param termVectors true to store the term vectors of the contents
+     * @return field type of the contents
+     */
+    public static FieldType contentsType(FieldType base, boolean termVectors) {
+        if (!termVectors)
+            return base;
+        FieldType type = new FieldType(base);
+        type.setStoreTermVectors(true);
+        type.freeze();
+        return type;
+    }
+
+    /**
+     * @param dir index directory
+     * @return true if the latest commit was written with term vectors
+     */
+    public static boolean hasTermVectors(Directory dir) throws IOException {
+        if (!DirectoryReader.indexExists(dir))
+            return false;
+        return Boolean.parseBoolean(SegmentInfos.readLatestCommit(dir).getUserData().get(COMMIT_TERM_VECTORS));
+    }
+
+    /**
+     * @param path path of a document in the result list
+     * @return query for the documents similar to path, without path itself, null if the document is not found
+     * or is an entry of a container indexed without term vectors
+     */
+    public Query like(String path) throws IOException {
+        int docId = find(path);
+        if (docId < 0)
+            return null;
+
+        // a copy indexed without text is described by its canonical document
+        Document doc = searcher.storedFields().document(docId);
+        String canonical = doc.get(LuceneFx.KEY_DUPLICATE_OF);
+        if (canonical != null) {
+            int canonicalId = find(canonical);
+            if (canonicalId >= 0)
+                docId = canonicalId;
+        }
+
+        Query like;
+        Terms vector = searcher.getIndexReader().termVectors().get(docId, LuceneFx.KEY_CONTENTS);
+        if (vector != null) {
+            like = mlt.like(docId);
+        } else {
+            String file = (canonical != null) ? canonical : path;
+            if (!file.equals(ContainerExtractor.containerPath(file))) {
+                log.debug("no term vectors for the container entry '{}'", file);
+                return null;
+            }
+            log.debug("no term vectors for '{}', converting the file again", path);
+            like = likeText(Path.of(file));
+        }
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(like, BooleanClause.Occur.MUST);
+        builder.add(new TermQuery(new Term(LuceneFx.KEY_PATH, path)), BooleanClause.Occur.MUST_NOT);
+        if (canonical != null)
+            builder.add(new TermQuery(new Term(LuceneFx.KEY_PATH, canonical)), BooleanClause.Occur.MUST_NOT);
+        return builder.build();
+    }
+
+    /**
+     * @return document number of path, -1 if not found
+     */
+    private int find(String path) throws IOException {
+        TopDocs docs = searcher.search(new TermQuery(new Term(LuceneFx.KEY_PATH, path)), 1);
+        return (docs.scoreDocs.length == 0) ? -1 : docs.scoreDocs[0].doc;
+    }
+
+    /**
+     * @return query on the significant words of the text of a file
+     */
+    private Query likeText(Path file) throws IOException {
+        try (Reader text = Startup.tika().parse(file)) {
+            return mlt.like(LuceneFx.KEY_CONTENTS, text);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Lazy initialization of the expensive components, and startup time measurement.<br>
+ * Tika scans the classpath for its parsers and the analyzer loads ICU data: both are built in
+ * parallel in background threads once the main window is shown, instead of on the FX thread.
+ */
+public class Startup {
+    private static final Logger log = LoggerFactory.getLogger(Startup.class);
+
+    // system property set by the CDS training run of the cds maven profile
+    public static final String TRAINING_PROPERTY = "lucenefx.training";
+    // characters of a document indexed, the default limit of Tika, also applied to plain text, see PlainText
+    public static final int MAX_TEXT_CHARS = 100_000;
+
+    private static CompletableFuture<Tika> tika;
+    private static CompletableFuture<Analyzer> analyzer;
+
+    private Startup() {
+    }
+
+    /**
+     * start building Tika and the analyzer in the background, if not already done
+     */
+    public static synchronized void preload() {
+        if (tika == null)
+            tika = CompletableFuture.supplyAsync(Startup::createTika);
+        if (analyzer == null)
+            analyzer = CompletableFuture.supplyAsync(Startup::createAnalyzer);
+    }
+
+    /**
+     * @return Tika facade, waits for its initialization
+     */
+    public static Tika tika() {
+        preload();
+        return tika.join();
+    }
+
+    /**
+     * @return analyzer used for indexing and searching, waits for its initialization
+     */
+    public static Analyzer analyzer() {
+        preload();
+        return analyzer.join();
+    }
+
+    private static Tika createTika() {
+        long start = System.currentTimeMillis();
+        Tika t = new Tika();
+        t.setMaxStringLength(MAX_TEXT_CHARS);
+        log.info("Tika initialized in {} ms", System.currentTimeMillis() - start);
+        return t;
+    }
+
+    private static Analyzer createAnalyzer() {
+        long start = System.currentTimeMillis();
+        Analyzer a = new NoAccentAnalyzer();
+        // the first token stream loads ICU normalization data
+        try (TokenStream ts = a.tokenStream(LuceneFx.KEY_CONTENTS, "Démarrage")) {
+            ts.reset();
+            while (ts.incrementToken()) {
+                // only load
+            }
+            ts.end();
+        } catch (IOException e) {
+            log.warn("Could not initialize analyzer", e);
+        }
+        log.info("analyzer initialized in {} ms", System.currentTimeMillis() - start);
+        return a;
+    }
+
+    /**
+     * log the time elapsed since the JVM started
+     *
+     * @param event startup step reached
+     */
+    public static void mark(String event) {
+        ProcessHandle.current().info().startInstant().ifPresent(start ->
+                log.info("startup: {} after {} ms", event, Duration.between(start, Instant.now()).toMillis()));
+    }
+
+    /**
+     * CDS training run, without GUI: loads and exercises the classes used at startup
+     * (Tika, analyzer, indexing, query parsing, search, facets), so that they are
+     * stored in the class data sharing archive.
+     */
+    public static void train() throws Exception {
+        Class.forName(LuceneFx.class.getName(), false, Startup.class.getClassLoader());
+
+        Tika t = tika();
+        try (InputStream input = Objects.requireNonNull(Startup.class.getResourceAsStream("ResourceBundle.properties"))) {
+            t.parseToString(input);
+        }
+
+        try (Directory dir = new ByteBuffersDirectory();
+             IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(analyzer()))) {
+            Document doc = new Document();
+            doc.add(new TextField(LuceneFx.KEY_CONTENTS, "class data sharing training run", Field.Store.NO));
+            writer.addDocument(DocFacets.build(doc, null, java.nio.file.Path.of("training.txt"), "text/plain",
+                    System.currentTimeMillis()));
+            writer.commit();
+
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                searcher.search(new SearchQueryParser(analyzer()).parse("training AND modified:[2000 TO 2100]"), 10);
+                DocFacets.openState(reader);
+            }
+        }
+        log.info("CDS training run done");
+    }
+}
@@ -0,0 +1,181 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+/**
+ * Sizes the RAM buffer of the {@link IndexWriter} from the heap, the number of indexing
+ * threads and the observed size of the documents.<br>
+ * Tika holds the whole text of a document (and often more) while it is converted, so each
+ * indexing thread reserves some heap for parsing and the writer gets a share of the rest.
+ * The buffer is adjusted as documents are indexed, and the writer is flushed early when the
+ * heap is nearly full after the last garbage collection.
+ * A fixed buffer size can be forced with the system property {@value #RAM_BUFFER_PROPERTY} (MB).
+ */
+public class WriterMemoryTuner {
+    private static final Logger log = LoggerFactory.getLogger(WriterMemoryTuner.class);
+
+    public static final String RAM_BUFFER_PROPERTY = "lucenefx.ramBufferMB";
+
+    private static final long MB = 1L << 20;
+    // part of the heap shared by the writer and the parsers
+    private static final double HEAP_RATIO = 0.5;
+    // heap reserved by each thread for parsing, at least, and in multiples of the average document
+    private static final long MIN_PARSE_RESERVE = 64 * MB;
+    private static final int PARSE_RESERVE_DOCS = 8;
+    private static final double MIN_BUFFER_MB = 16;
+    private static final double MAX_BUFFER_MB = 2048;
+    // per-thread hard limit must stay below 2 GB
+    private static final int MAX_PER_THREAD_MB = IndexWriterConfig.DEFAULT_RAM_PER_THREAD_HARD_LIMIT_MB;
+    // heap ratio still used after a garbage collection above which the writer is flushed before the buffer is full
+    private static final double PRESSURE_RATIO = 0.85;
+    // documents between two adjustments of the buffer
+    private static final int TUNE_INTERVAL = 500;
+
+    // heap pools reporting their usage after the last garbage collection
+    private static final List<MemoryPoolMXBean> HEAP_POOLS = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported())
+            .toList();
+
+    private final int workers;
+    private final double fixedBufferMB;
+
+    private double bufferMB;
+    private int perThreadMB;
+    private long docs;
+    private long docBytes;
+    private int earlyFlushes;
+    private long peakWriterBytes;
+
+    /**
+     * WriterMemoryTuner
+     *
+     * @param workers number of threads adding documents to the writer
+     */
+    public WriterMemoryTuner(int workers) {
+        this.workers = Math.max(1, workers);
+        this.fixedBufferMB = Double.parseDouble(System.getProperty(RAM_BUFFER_PROPERTY, "0"));
+    }
+
+    /**
+     * set the initial buffer sizes, before anything is known about the documents
+     *
+     * @param iwc configuration of the writer
+     */
+    public void configure(IndexWriterConfig iwc) {
+        bufferMB = computeBufferMB();
+        perThreadMB = computePerThreadMB(bufferMB);
+        iwc.setRAMBufferSizeMB(bufferMB);
+        iwc.setRAMPerThreadHardLimitMB(perThreadMB);
+        log.info("writer RAM buffer {} MB, per-thread limit {} MB (heap {} MB, {} workers{})", (long) bufferMB,
+                perThreadMB, Runtime.getRuntime().maxMemory() / MB, workers, isAuto() ? "" : ", fixed");
+    }
+
+    /**
+     * @param bytes size of the text of a converted document
+     */
+    public synchronized void observe(long bytes) {
+        docs++;
+        docBytes += bytes;
+    }
+
+    /**
+     * called after each document: flush under memory pressure and adjust the buffer periodically
+     *
+     * @param writer index writer
+     */
+    public void afterDocument(IndexWriter writer) throws IOException {
+        long writerBytes = writer.ramBytesUsed();
+        peakWriterBytes = Math.max(peakWriterBytes, writerBytes);
+
+        long used = liveHeapBytes();
+        if (used > Runtime.getRuntime().maxMemory() * PRESSURE_RATIO && writerBytes > MIN_BUFFER_MB * MB) {
+            log.debug("heap {} MB used, flushing {} MB of buffered documents", used / MB, writerBytes / MB);
+            writer.flush();
+            earlyFlushes++;
+        }
+
+        if (isAuto() && docs > 0 && docs % TUNE_INTERVAL == 0) {
+            double tuned = computeBufferMB();
+            // ignore small changes
+            if (Math.abs(tuned - bufferMB) > bufferMB / 10) {
+                log.info("writer RAM buffer {} -> {} MB (average document {} KB)", (long) bufferMB, (long) tuned,
+                        averageDocBytes() >> 10);
+                bufferMB = tuned;
+                writer.getConfig().setRAMBufferSizeMB(bufferMB);
+            }
+        }
+    }
+
+    /**
+     * @return heap used after the last garbage collection: garbage not collected yet is not pressure
+     */
+    private static long liveHeapBytes() {
+        if (HEAP_POOLS.isEmpty()) {
+            Runtime rt = Runtime.getRuntime();
+            return rt.totalMemory() - rt.freeMemory();
+        }
+        long used = 0;
+        for (MemoryPoolMXBean pool : HEAP_POOLS) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null)
+                used += usage.getUsed();
+        }
+        return used;
+    }
+
+    private boolean isAuto() {
+        return fixedBufferMB <= 0;
+    }
+
+    private synchronized long averageDocBytes() {
+        return (docs == 0) ? 0 : docBytes / docs;
+    }
+
+    private double computeBufferMB() {
+        if (!isAuto())
+            return fixedBufferMB;
+        long reserve = Math.max(MIN_PARSE_RESERVE, PARSE_RESERVE_DOCS * averageDocBytes());
+        double budget = (Runtime.getRuntime().maxMemory() * HEAP_RATIO - (double) workers * reserve) / MB;
+        return Math.clamp(budget, MIN_BUFFER_MB, MAX_BUFFER_MB);
+    }
+
+    private int computePerThreadMB(double buffer) {
+        // a thread may exceed its share of the buffer for a large document, but not indefinitely
+        return (int) Math.clamp(2 * buffer / workers, MIN_BUFFER_MB, MAX_PER_THREAD_MB);
+    }
+
+    public double getBufferMB() {
+        return bufferMB;
+    }
+
+    public int getPerThreadMB() {
+        return perThreadMB;
+    }
+
+    public int getEarlyFlushes() {
+        return earlyFlushes;
+    }
+
+    public long getPeakWriterBytes() {
+        return peakWriterBytes;
+    }
+
+    /**
+     * @return values chosen for the run, for the indexing metrics
+     */
+    @Override
+    public String toString() {
+        return String.format("RAM buffer %d MB, per-thread limit %d MB, average document %d KB, %d early flushes, peak %d MB",
+                (long) bufferMB, perThreadMB, averageDocBytes() >> 10, earlyFlushes, peakWriterBytes / MB);
+    }
+}
@@ -0,0 +1,152 @@
+package com.guberan.lucenefx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming implementation of the 64-bit xxHash algorithm (seed 0).<br>
+ * Used to detect files with identical contents before text extraction.
+ */
+public class XxHash64 {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    // bytes read at once
+    private static final int READ_CHUNK = 1 << 20;
+
+    private long v1 = P1 + P2;
+    private long v2 = P2;
+    private long v3 = 0;
+    private long v4 = -P1;
+    private long totalLen;
+
+    // bytes waiting for a complete 32 bytes stripe
+    private final ByteBuffer pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * hash the contents of a file, reading it through a direct buffer.<br>
+     * The file is not mapped: a mapped file truncated meanwhile raises an InternalError, not an IOException
+     *
+     * @param file file to hash
+     * @return hash and file size, as a hexadecimal string
+     */
+    public static String hashFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_CHUNK);
+            XxHash64 hash = new XxHash64();
+            while (channel.read(buffer.clear()) >= 0) {
+                hash.update(buffer.flip());
+            }
+            return hash.toHexString();
+        }
+    }
+
+    /**
+     * hash the remaining bytes of a buffer
+     *
+     * @param buffer bytes to hash, the buffer position is not modified
+     * @return hash and buffer size, as a hexadecimal string
+     */
+    public static String hash(ByteBuffer buffer) {
+        XxHash64 hash = new XxHash64();
+        hash.update(buffer.duplicate());
+        return hash.toHexString();
+    }
+
+    /**
+     * add bytes to the hash
+     *
+     * @param buffer bytes from position to limit are consumed
+     */
+    public void update(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        totalLen += buffer.remaining();
+
+        // complete a stripe started by the previous call
+        if (pending.position() > 0) {
+            while (pending.hasRemaining() && buffer.hasRemaining()) {
+                pending.put(buffer.get());
+            }
+            if (pending.hasRemaining())
+                return;
+            pending.flip();
+            stripe(pending);
+            pending.clear();
+        }
+
+        while (buffer.remaining() >= 32) {
+            stripe(buffer);
+        }
+        pending.put(buffer);
+    }
+
+    /**
+     * @return the hash of all bytes added so far
+     */
+    public long digest() {
+        long h;
+        if (totalLen >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = P5;
+        }
+        h += totalLen;
+
+        ByteBuffer tail = pending.duplicate().flip().order(ByteOrder.LITTLE_ENDIAN);
+        while (tail.remaining() >= 8) {
+            h ^= round(0, tail.getLong());
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (tail.remaining() >= 4) {
+            h ^= (tail.getInt() & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+        }
+        while (tail.hasRemaining()) {
+            h ^= (tail.get() & 0xFF) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    /**
+     * @return the hash followed by the number of bytes hashed, so that files of different sizes never match
+     */
+    public String toHexString() {
+        return String.format("%016x-%x", digest(), totalLen);
+    }
+
+    private void stripe(ByteBuffer buffer) {
+        v1 = round(v1, buffer.getLong());
+        v2 = round(v2, buffer.getLong());
+        v3 = round(v3, buffer.getLong());
+        v4 = round(v4, buffer.getLong());
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * P1 + P4;
+    }
+}
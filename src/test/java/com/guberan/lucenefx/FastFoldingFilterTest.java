@@ -0,0 +1,113 @@
+package com.guberan.lucenefx;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.icu.ICUFoldingFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * FastFoldingFilter must produce the tokens of ICUFoldingFilter: terms, offsets, position increments and types.
+ */
+class FastFoldingFilterTest {
+
+    private static final List<String> SAMPLES = List.of(
+            "Le Café de la Gare, élève ÉCOLE Noël Œuvre cœur Straße GROSSE Fußball Ärger Øresund ĳssel",
+            "İstanbul ISTANBUL ıiIİ Ⅻ ＡＢＣ１２３ ﬁnance ﬀ ½ ² ㎏ Ωmega ΣΊΣΥΦΟΣ ὈΔΥΣΣΕΎΣ",
+            "Москва МОСКВА Ёлка ёлка Київ Ґанок",
+            "東京都 とうきょう トウキョウ ｶﾀｶﾅ 한국어 조선말 中文字符 الْعَرَبِيَّة עִבְרִית हिन्दी ไทย",
+            "O'Neil wasn't U.S.A. e_mail 3.14 1,000,000 foo-bar x86_64 C++ C# user@example.com http://x.org/a?b=c",
+            "emoji 😀 👍🏽 🇨🇭 é Å soft­hyphen zero​width Ⅳ ﬁ ǅ ǈ ǋ 𝐀𝐁𝐂 𝟙𝟚",
+            "ÀÉÎÕÜ àéîõü ÇÑ çñ ÅÆØ åæø ŁŃŚŹŻ łńśźż ČŠŽ čšž ŐŰ őű",
+            "THE QUICK BROWN FOX Jumps Over The LAZY dog AND the END 42 0x1F ABC123def");
+
+    private static final Analyzer ICU = analyzer(ICUFoldingFilter::new);
+    private static final Analyzer FAST = analyzer(FastFoldingFilter::new);
+
+    private static Analyzer analyzer(Function<TokenStream, TokenStream> folding) {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer source = new StandardTokenizer();
+                return new TokenStreamComponents(source, folding.apply(source));
+            }
+        };
+    }
+
+    /**
+     * @return term, offsets, position increment and type of each token, and the final offset
+     */
+    private static List<String> tokens(Analyzer analyzer, String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(LuceneFx.KEY_CONTENTS, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+            PositionIncrementAttribute position = stream.addAttribute(PositionIncrementAttribute.class);
+            TypeAttribute type = stream.addAttribute(TypeAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(term + " " + offset.startOffset() + "-" + offset.endOffset() + " +"
+                        + position.getPositionIncrement() + " " + type.type());
+            }
+            stream.end();
+            tokens.add("end " + offset.endOffset() + " +" + position.getPositionIncrement());
+        }
+        return tokens;
+    }
+
+    private static void assertSameTokens(String text) throws IOException {
+        assertEquals(tokens(ICU, text), tokens(FAST, text), text);
+    }
+
+    @Test
+    void multilingualSamples() throws IOException {
+        for (String text : SAMPLES) {
+            assertSameTokens(text);
+        }
+    }
+
+    @Test
+    void everyAsciiCharacter() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (char c = 0; c < 128; c++) {
+            text.append(c).append('x').append(c).append(" A").append(c).append("b ");
+        }
+        assertSameTokens(text.toString());
+    }
+
+    @Test
+    void randomStrings() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 5_000; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int k = 0; k < 40; k++) {
+                int codePoint = switch (random.nextInt(7)) {
+                    case 0 -> random.nextInt(0x80);
+                    case 1 -> 0x80 + random.nextInt(0x500);
+                    case 2 -> 0x300 + random.nextInt(0x70); // combining marks
+                    case 3 -> random.nextInt(0x10000);
+                    case 4 -> 0x10000 + random.nextInt(0x20000);
+                    case 5 -> 'A' + random.nextInt(26);
+                    default -> ' ';
+                };
+                if (Character.isSurrogate((char) codePoint) && codePoint < 0x10000)
+                    codePoint = 'z';
+                text.appendCodePoint(codePoint);
+            }
+            assertSameTokens(text.toString());
+        }
+    }
+}